@@ -0,0 +1,152 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.httpsig.api.Algorithm;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates and caches a small pool of key pairs per key type, and encodes them as OpenSSH public key entries.
+ * Keychains of any size are built by assigning the pooled keys round-robin to distinct users, since generating
+ * 100k RSA key pairs would dominate the benchmark setup.
+ */
+public final class BenchmarkKeys {
+
+    public static final int POOL_SIZE = 4;
+
+    public enum KeyType {
+        RSA("ssh-rsa", "RSA", 2048, Algorithm.RSA_SHA256, "SHA256withRSA"),
+        DSA("ssh-dss", "DSA", 1024, Algorithm.DSA_SHA1, "SHA1withDSA");
+
+        private final String sshType;
+        private final String keyAlgorithm;
+        private final int keySize;
+        private final Algorithm algorithm;
+        private final String signatureAlgorithm;
+
+        KeyType(String sshType, String keyAlgorithm, int keySize, Algorithm algorithm, String signatureAlgorithm) {
+            this.sshType = sshType;
+            this.keyAlgorithm = keyAlgorithm;
+            this.keySize = keySize;
+            this.algorithm = algorithm;
+            this.signatureAlgorithm = signatureAlgorithm;
+        }
+
+        public Algorithm getAlgorithm() {
+            return algorithm;
+        }
+    }
+
+    private static final Map<KeyType, List<KeyPair>> POOLS = new EnumMap<KeyType, List<KeyPair>>(KeyType.class);
+
+    private BenchmarkKeys() {
+    }
+
+    /**
+     * @param keyType the key type
+     * @return the pooled key pairs for the key type, generated on first use
+     */
+    public static synchronized List<KeyPair> getKeyPairs(KeyType keyType) throws GeneralSecurityException {
+        List<KeyPair> pool = POOLS.get(keyType);
+        if (pool == null) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(keyType.keyAlgorithm);
+            generator.initialize(keyType.keySize);
+            pool = new ArrayList<KeyPair>(POOL_SIZE);
+            for (int i = 0; i < POOL_SIZE; i++) {
+                pool.add(generator.generateKeyPair());
+            }
+            pool = Collections.unmodifiableList(pool);
+            POOLS.put(keyType, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * @param keyType the key type
+     * @param keyPair a key pair of that type
+     * @return the public key as an authorized_keys entry
+     */
+    public static String toAuthorizedKey(KeyType keyType, KeyPair keyPair) throws IOException {
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(blob);
+        writeString(out, keyType.sshType.getBytes("US-ASCII"));
+        if (keyType == KeyType.RSA) {
+            RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+            writeMpint(out, publicKey.getPublicExponent());
+            writeMpint(out, publicKey.getModulus());
+        } else {
+            DSAPublicKey publicKey = (DSAPublicKey) keyPair.getPublic();
+            writeMpint(out, publicKey.getParams().getP());
+            writeMpint(out, publicKey.getParams().getQ());
+            writeMpint(out, publicKey.getParams().getG());
+            writeMpint(out, publicKey.getY());
+        }
+        out.flush();
+        return keyType.sshType + " " + DatatypeConverter.printBase64Binary(blob.toByteArray()) + " benchmark";
+    }
+
+    /**
+     * @param keyType the key type
+     * @param privateKey a private key of that type
+     * @param content the signing string bytes
+     * @return the signature bytes
+     */
+    public static byte[] sign(KeyType keyType, PrivateKey privateKey, byte[] content)
+            throws GeneralSecurityException {
+        Signature signature = Signature.getInstance(keyType.signatureAlgorithm);
+        signature.initSign(privateKey);
+        signature.update(content);
+        return signature.sign();
+    }
+
+    private static void writeString(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeMpint(DataOutputStream out, BigInteger value) throws IOException {
+        writeString(out, value.toByteArray());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.oak.httpsig.HttpsigConfiguration;
+import net.adamcin.oak.httpsig.impl.HttpsigLoginModule;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.ContentSession;
+import org.apache.jackrabbit.oak.api.Root;
+import org.apache.jackrabbit.oak.namepath.NamePathMapper;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexProvider;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.security.authentication.user.LoginModuleImpl;
+import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
+
+import javax.jcr.SimpleCredentials;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds an in-memory Oak repository whose JAAS configuration tries {@link HttpsigLoginModule} before the default
+ * Oak login module, with an authorized_keys file configured for each user of a {@link Fixture}. Only the target user
+ * of the fixture is created in the repository, as a member of a chain of nested groups.
+ */
+public final class BenchmarkRepository implements Closeable {
+
+    public static final int GROUP_DEPTH = 5;
+
+    private final BenchmarkSecurityProvider securityProvider;
+    private final ContentRepository repository;
+
+    public BenchmarkRepository(Fixture fixture, int keyCount) throws Exception {
+        installJaasConfiguration();
+
+        List<String> authorizedKeys = fixture.getAuthorizedKeys();
+        File[] keyFiles = new File[authorizedKeys.size()];
+        for (int i = 0; i < keyFiles.length; i++) {
+            keyFiles[i] = writeAuthorizedKeys(authorizedKeys.get(i));
+        }
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(HttpsigConfiguration.PARAM_SKEW, Fixture.SKEW);
+        parameters.put(HttpsigConfiguration.PARAM_RELOAD_INTERVAL, 0L);
+        parameters.put(HttpsigConfiguration.PARAM_KEYS_PROPERTY, "");
+        for (int i = 0; i < keyCount; i++) {
+            parameters.put(HttpsigConfiguration.PARAM_PREFIX_SSHKEYS + Fixture.getUserId(i),
+                    keyFiles[i % keyFiles.length].getAbsolutePath());
+        }
+
+        this.securityProvider = new BenchmarkSecurityProvider(parameters);
+        this.repository = new Oak()
+                .with(new InitialContent())
+                .with(new PropertyIndexEditorProvider())
+                .with(new PropertyIndexProvider())
+                .with(securityProvider)
+                .createContentRepository();
+
+        createUser(fixture.getUserId());
+    }
+
+    /**
+     * Stops the httpsig configuration of the repository.
+     */
+    @Override
+    public void close() {
+        securityProvider.close();
+    }
+
+    public BenchmarkSecurityProvider getSecurityProvider() {
+        return securityProvider;
+    }
+
+    public ContentRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * @return a session of the admin user
+     */
+    public ContentSession loginAdmin() throws Exception {
+        return repository.login(new SimpleCredentials("admin", "admin".toCharArray()), null);
+    }
+
+    private void createUser(String userId) throws Exception {
+        ContentSession session = loginAdmin();
+        try {
+            Root root = session.getLatestRoot();
+            UserManager userManager = securityProvider.getConfiguration(UserConfiguration.class)
+                    .getUserManager(root, NamePathMapper.DEFAULT);
+            User user = userManager.createUser(userId, null);
+            Group member = null;
+            for (int i = 0; i < GROUP_DEPTH; i++) {
+                Group group = userManager.createGroup(userId + "-group-" + i);
+                group.addMember(member != null ? member : user);
+                member = group;
+            }
+            root.commit();
+        } finally {
+            session.close();
+        }
+    }
+
+    static File writeAuthorizedKeys(String entry) throws IOException {
+        File file = File.createTempFile("authorized_keys", ".pub");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+        try {
+            writer.write(entry);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    static void installJaasConfiguration() {
+        final AppConfigurationEntry[] entries = new AppConfigurationEntry[]{
+                new AppConfigurationEntry(HttpsigLoginModule.class.getName(),
+                        AppConfigurationEntry.LoginModuleControlFlag.SUFFICIENT,
+                        Collections.<String, Object>emptyMap()),
+                new AppConfigurationEntry(LoginModuleImpl.class.getName(),
+                        AppConfigurationEntry.LoginModuleControlFlag.REQUIRED,
+                        Collections.<String, Object>emptyMap())
+        };
+        Configuration.setConfiguration(new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String applicationName) {
+                return entries;
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.oak.httpsig.HttpsigConfiguration;
+import net.adamcin.oak.httpsig.impl.HttpsigConfigurationImpl;
+import org.apache.jackrabbit.oak.security.SecurityProviderImpl;
+import org.apache.jackrabbit.oak.spi.security.ConfigurationParameters;
+import org.apache.jackrabbit.oak.spi.security.SecurityConfiguration;
+import org.apache.jackrabbit.oak.spi.security.SecurityProvider;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link SecurityProvider} which adds an {@link HttpsigConfigurationImpl} to the default Oak security configurations.
+ * The configuration is started when the provider is created, and must be stopped with {@link #close()}.
+ */
+public final class BenchmarkSecurityProvider implements SecurityProvider, Closeable {
+
+    private final SecurityProvider delegate;
+    private final ConfigurationParameters httpsigParameters;
+    private final HttpsigConfigurationImpl httpsigConfiguration;
+
+    public BenchmarkSecurityProvider(Map<String, Object> httpsigParameters) {
+        this.delegate = new SecurityProviderImpl();
+        this.httpsigParameters = ConfigurationParameters.of(httpsigParameters);
+        this.httpsigConfiguration = new HttpsigConfigurationImpl(this);
+        this.httpsigConfiguration.start();
+    }
+
+    /**
+     * Stops the threads of the httpsig configuration and unregisters its stats MBean.
+     */
+    @Override
+    public void close() {
+        httpsigConfiguration.stop();
+    }
+
+    public HttpsigConfigurationImpl getHttpsigConfiguration() {
+        return httpsigConfiguration;
+    }
+
+    @Nonnull
+    @Override
+    public ConfigurationParameters getParameters(@Nullable String name) {
+        if (HttpsigConfiguration.NAME.equals(name)) {
+            return httpsigParameters;
+        }
+        return delegate.getParameters(name);
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<? extends SecurityConfiguration> getConfigurations() {
+        List<SecurityConfiguration> configurations = new ArrayList<SecurityConfiguration>();
+        for (SecurityConfiguration configuration : delegate.getConfigurations()) {
+            configurations.add(configuration);
+        }
+        configurations.add(httpsigConfiguration);
+        return configurations;
+    }
+
+    @Nonnull
+    @Override
+    public <T> T getConfiguration(@Nonnull Class<T> configClass) {
+        if (HttpsigConfiguration.class.equals(configClass)) {
+            return configClass.cast(httpsigConfiguration);
+        }
+        return delegate.getConfiguration(configClass);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Challenge;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+import net.adamcin.oak.httpsig.impl.JCRKey;
+import net.adamcin.oak.httpsig.impl.JCRKeyId;
+import net.adamcin.oak.httpsig.impl.OpenSSHKey;
+
+import javax.xml.bind.DatatypeConverter;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds a keychain of {@code keyCount} keys assigned to users "user-0" through "user-{keyCount - 1}", and a request
+ * signed by the key of the user in the middle of the keychain.
+ */
+public final class Fixture {
+
+    public static final String REALM = "benchmark";
+    public static final long SKEW = 60L * 60L * 1000L;
+
+    private final BenchmarkKeys.KeyType keyType;
+    private final List<String> authorizedKeys;
+    private final List<JCRKey> keys;
+    private final String userId;
+    private final JCRKey key;
+    private final Challenge challenge;
+    private final RequestContent requestContent;
+    private final Authorization authorization;
+    private final byte[] contentBytes;
+    private final byte[] signatureBytes;
+
+    public Fixture(BenchmarkKeys.KeyType keyType, int keyCount, boolean validSignature) throws Exception {
+        this.keyType = keyType;
+
+        List<KeyPair> keyPairs = BenchmarkKeys.getKeyPairs(keyType);
+        List<String> authorizedKeys = new ArrayList<String>(keyPairs.size());
+        List<OpenSSHKey> sshKeys = new ArrayList<OpenSSHKey>(keyPairs.size());
+        for (KeyPair keyPair : keyPairs) {
+            String entry = BenchmarkKeys.toAuthorizedKey(keyType, keyPair);
+            authorizedKeys.add(entry);
+            sshKeys.add(OpenSSHKey.parse(entry));
+        }
+        this.authorizedKeys = Collections.unmodifiableList(authorizedKeys);
+
+        List<JCRKey> keys = new ArrayList<JCRKey>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(new JCRKey(getUserId(i), sshKeys.get(i % sshKeys.size())));
+        }
+        this.keys = Collections.unmodifiableList(keys);
+
+        int target = keyCount / 2;
+        this.userId = getUserId(target);
+        this.key = keys.get(target);
+
+        List<String> headers = new ArrayList<String>(Constants.DEFAULT_HEADERS);
+        headers.add("host");
+        headers.add("user-agent");
+
+        this.challenge = new Challenge(REALM, Constants.DEFAULT_HEADERS, this.key.getAlgorithms());
+        this.requestContent = new RequestContent.Builder()
+                .setRequestLine("GET /bin/querybuilder.json?path=/content HTTP/1.1")
+                .addDateNow()
+                .addHeader("host", "localhost:4502")
+                .addHeader("user-agent", "httpsig-benchmark/1.0")
+                .build();
+        this.contentBytes = this.requestContent.getContent(headers, Constants.CHARSET);
+
+        byte[] signature = BenchmarkKeys.sign(keyType,
+                keyPairs.get(target % keyPairs.size()).getPrivate(), this.contentBytes);
+        if (!validSignature) {
+            signature[signature.length / 2] ^= 0x5a;
+        }
+        this.signatureBytes = signature;
+        this.authorization = new Authorization(JCRKeyId.getId(this.userId, this.key.getFingerprint()),
+                DatatypeConverter.printBase64Binary(signature), headers, keyType.getAlgorithm());
+    }
+
+    public static String getUserId(int index) {
+        return "user-" + index;
+    }
+
+    public BenchmarkKeys.KeyType getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * @return the distinct authorized_keys entries of the key pool
+     */
+    public List<String> getAuthorizedKeys() {
+        return authorizedKeys;
+    }
+
+    public List<JCRKey> getKeys() {
+        return keys;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public JCRKey getKey() {
+        return key;
+    }
+
+    public Challenge getChallenge() {
+        return challenge;
+    }
+
+    public RequestContent getRequestContent() {
+        return requestContent;
+    }
+
+    public Authorization getAuthorization() {
+        return authorization;
+    }
+
+    public byte[] getContentBytes() {
+        return contentBytes;
+    }
+
+    public byte[] getSignatureBytes() {
+        return signatureBytes;
+    }
+
+    public HttpsigCredentials newCredentials(Challenge challenge) {
+        return new HttpsigCredentials(challenge, authorization, requestContent);
+    }
+}
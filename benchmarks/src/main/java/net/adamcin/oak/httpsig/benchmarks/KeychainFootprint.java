@@ -0,0 +1,96 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.httpsig.api.Key;
+import net.adamcin.oak.httpsig.impl.IndexedKeychain;
+import net.adamcin.oak.httpsig.impl.JCRKey;
+import net.adamcin.oak.httpsig.impl.JCRKeyId;
+import net.adamcin.oak.httpsig.impl.OpenSSHKey;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the retained heap of an {@link IndexedKeychain} per key, first as loaded, and then after every key has
+ * been used once, which decodes its public key and creates its signature pools. Keys are parsed from separate
+ * authorized_keys entries, two per user, as they would be from authorized_keys files. Configured with system
+ * properties {@code footprint.keys} (100000) and {@code footprint.keyType} (RSA). Run with enough heap for the
+ * materialized keychain, e.g. -Xmx2g.
+ */
+public final class KeychainFootprint {
+
+    private static final int KEYS_PER_USER = 2;
+
+    private KeychainFootprint() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int keyCount = Integer.getInteger("footprint.keys", 100000);
+        BenchmarkKeys.KeyType keyType = BenchmarkKeys.KeyType.valueOf(System.getProperty("footprint.keyType", "RSA"));
+
+        List<String> entries = new ArrayList<String>();
+        for (KeyPair keyPair : BenchmarkKeys.getKeyPairs(keyType)) {
+            entries.add(BenchmarkKeys.toAuthorizedKey(keyType, keyPair));
+        }
+
+        long baseline = usedHeap();
+        List<JCRKey> keys = new ArrayList<JCRKey>(keyCount);
+        String userId = null;
+        for (int i = 0; i < keyCount; i++) {
+            if (i % KEYS_PER_USER == 0) {
+                userId = Fixture.getUserId(i / KEYS_PER_USER);
+            }
+            keys.add(new JCRKey(userId, OpenSSHKey.parse(entries.get(i % entries.size()))));
+        }
+        IndexedKeychain keychain = new IndexedKeychain(new JCRKeyId(), keys);
+        keys = null;
+        long loaded = usedHeap() - baseline;
+
+        byte[] content = "date: Thu, 01 Jan 1970 00:00:00 GMT".getBytes("US-ASCII");
+        byte[] signature = new byte[8];
+        for (Key key : keychain) {
+            key.verify(keyType.getAlgorithm(), content, signature);
+        }
+        long used = usedHeap() - baseline;
+
+        System.out.println(String.format(Locale.ROOT, "%d %s keys: %d bytes/key loaded, %d bytes/key after use",
+                keychain.size(), keyType, loaded / keyCount, used / keyCount));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100L);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
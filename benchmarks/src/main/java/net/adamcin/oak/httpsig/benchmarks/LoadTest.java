@@ -0,0 +1,211 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.ContentSession;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end login load test against a {@link LoadTestCluster}. Worker threads log in as the simulated clients in
+ * turn, spreading the logins across the nodes, and each run reports logins per second and p50/p99 login latency.
+ * The thread count doubles from 1 up to {@code loadtest.maxThreads} to produce a scaling curve, which is also written
+ * to {@code httpsig-loadtest.csv}. Configured with system properties:
+ * <ul>
+ *     <li>{@code loadtest.nodes}: repository instances sharing the node store (2)</li>
+ *     <li>{@code loadtest.clients}: simulated clients, one user each (100)</li>
+ *     <li>{@code loadtest.requests}: pre-signed requests per client (8)</li>
+ *     <li>{@code loadtest.keyType}: RSA or DSA (RSA)</li>
+ *     <li>{@code loadtest.maxThreads}: the highest thread count (twice the processors)</li>
+ *     <li>{@code loadtest.seconds}: duration of each run (10)</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = Integer.getInteger("loadtest.nodes", 2);
+        int clientCount = Integer.getInteger("loadtest.clients", 100);
+        int requestsPerClient = Integer.getInteger("loadtest.requests", 8);
+        BenchmarkKeys.KeyType keyType = BenchmarkKeys.KeyType.valueOf(System.getProperty("loadtest.keyType", "RSA"));
+        int maxThreads = Integer.getInteger("loadtest.maxThreads", Runtime.getRuntime().availableProcessors() * 2);
+        int seconds = Integer.getInteger("loadtest.seconds", 10);
+
+        LoadTestCluster cluster = new LoadTestCluster(nodeCount, clientCount, keyType, requestsPerClient);
+        try {
+            System.out.println(String.format("%d nodes, %d %s clients", nodeCount, clientCount, keyType));
+
+            // warm up the JIT, the signature pools and the principal caches
+            run(cluster, maxThreads, Math.max(1, seconds / 2));
+
+            PrintWriter csv = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream("httpsig-loadtest.csv"), "UTF-8"));
+            try {
+                csv.println("nodes,clients,keyType,threads,logins,failures,loginsPerSecond,p50Micros,p99Micros");
+                System.out.println("threads   logins/sec    p50 (us)    p99 (us)   failures");
+                for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+                    Result result = run(cluster, threads, seconds);
+                    System.out.println(String.format(Locale.ROOT, "%7d %12.1f %11d %11d %10d", threads,
+                            result.getLoginsPerSecond(), result.getPercentile(50.0), result.getPercentile(99.0),
+                            result.failures));
+                    csv.println(String.format(Locale.ROOT, "%d,%d,%s,%d,%d,%d,%.1f,%d,%d", nodeCount, clientCount,
+                            keyType, threads, result.logins, result.failures, result.getLoginsPerSecond(),
+                            result.getPercentile(50.0), result.getPercentile(99.0)));
+                    csv.flush();
+                    if (threads >= maxThreads) {
+                        break;
+                    }
+                }
+            } finally {
+                csv.close();
+            }
+        } finally {
+            cluster.close();
+        }
+        System.exit(0);
+    }
+
+    private static Result run(final LoadTestCluster cluster, int threads, int seconds) throws InterruptedException {
+        final List<ContentRepository> nodes = cluster.getNodes();
+        final List<LoadTestClient> clients = cluster.getClients();
+        final AtomicLong sequence = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        final Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (System.nanoTime() < deadline[0]) {
+                        long next = sequence.getAndIncrement();
+                        int client = (int) (next % clients.size());
+                        ContentRepository node = nodes.get(client % nodes.size());
+                        long begin = System.nanoTime();
+                        try {
+                            ContentSession session = node.login(clients.get(client).getRequest(next), null);
+                            session.close();
+                            record(System.nanoTime() - begin);
+                        } catch (Exception e) {
+                            failures++;
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        long begin = System.nanoTime();
+        deadline[0] = begin + TimeUnit.SECONDS.toNanos(seconds);
+        start.countDown();
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        Result result = new Result(elapsed);
+        for (Worker worker : workers) {
+            result.add(worker);
+        }
+        return result;
+    }
+
+    /**
+     * Worker thread collecting the latencies of its successful logins.
+     */
+    private abstract static class Worker extends Thread {
+        private long[] latencies = new long[1024];
+        private int count;
+        long failures;
+
+        void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+
+    private static final class Result {
+        private final long elapsedNanos;
+        private final List<long[]> parts = new ArrayList<long[]>();
+        private long[] sorted;
+        private long logins;
+        private long failures;
+
+        private Result(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        private void add(Worker worker) {
+            parts.add(Arrays.copyOf(worker.latencies, worker.count));
+            logins += worker.count;
+            failures += worker.failures;
+        }
+
+        private double getLoginsPerSecond() {
+            return logins * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return the latency percentile of successful logins, in microseconds
+         */
+        private long getPercentile(double percentile) {
+            if (sorted == null) {
+                sorted = new long[(int) logins];
+                int offset = 0;
+                for (long[] part : parts) {
+                    System.arraycopy(part, 0, sorted, offset, part.length);
+                    offset += part.length;
+                }
+                Arrays.sort(sorted);
+            }
+            if (sorted.length == 0) {
+                return 0L;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Challenge;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+import net.adamcin.oak.httpsig.impl.JCRKeyId;
+import net.adamcin.oak.httpsig.impl.OpenSSHKey;
+
+import javax.xml.bind.DatatypeConverter;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simulated client of the load test, holding a pool of requests signed up front with its own user's key, so that
+ * client-side signing does not compete with the logins being measured.
+ */
+public final class LoadTestClient {
+
+    private final String userId;
+    private final HttpsigCredentials[] requests;
+
+    public LoadTestClient(String userId, BenchmarkKeys.KeyType keyType, KeyPair keyPair, String authorizedKey,
+                          Challenge challenge, int requestCount) throws Exception {
+        this.userId = userId;
+        String keyId = JCRKeyId.getId(userId, OpenSSHKey.parse(authorizedKey).getFingerprint());
+
+        List<String> headers = new ArrayList<String>(Constants.DEFAULT_HEADERS);
+        headers.add("host");
+        headers.add("user-agent");
+
+        this.requests = new HttpsigCredentials[requestCount];
+        for (int i = 0; i < requestCount; i++) {
+            RequestContent requestContent = new RequestContent.Builder()
+                    .setRequestLine("GET /content/" + userId + "/" + i + ".json HTTP/1.1")
+                    .addDateNow()
+                    .addHeader("host", "localhost:4502")
+                    .addHeader("user-agent", "httpsig-loadtest/1.0")
+                    .build();
+            byte[] signature = BenchmarkKeys.sign(keyType, keyPair.getPrivate(),
+                    requestContent.getContent(headers, Constants.CHARSET));
+            Authorization authorization = new Authorization(keyId, DatatypeConverter.printBase64Binary(signature),
+                    headers, keyType.getAlgorithm());
+            this.requests[i] = new HttpsigCredentials(challenge, authorization, requestContent);
+        }
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @param sequence a request counter
+     * @return one of the pre-signed requests
+     */
+    public HttpsigCredentials getRequest(long sequence) {
+        return requests[(int) (sequence % requests.length)];
+    }
+}
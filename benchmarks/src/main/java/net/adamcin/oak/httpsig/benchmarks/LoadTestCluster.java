@@ -0,0 +1,151 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.oak.httpsig.HttpsigConfiguration;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.ContentSession;
+import org.apache.jackrabbit.oak.api.Root;
+import org.apache.jackrabbit.oak.namepath.NamePathMapper;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexProvider;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+
+import javax.jcr.SimpleCredentials;
+import java.io.Closeable;
+import java.io.File;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Several Oak repository instances on one shared {@link MemoryNodeStore}, each with its own
+ * {@link BenchmarkSecurityProvider} wiring {@link net.adamcin.oak.httpsig.impl.HttpsigConfigurationImpl} and the
+ * {@link net.adamcin.oak.httpsig.impl.HttpsigLoginModule} JAAS configuration, like the nodes of a cluster. One user
+ * per simulated client is created through the first node, with an authorized_keys file configured on every node.
+ */
+public final class LoadTestCluster implements Closeable {
+
+    private final List<ContentRepository> nodes;
+    private final List<BenchmarkSecurityProvider> securityProviders;
+    private final List<LoadTestClient> clients;
+
+    public LoadTestCluster(int nodeCount, int clientCount, BenchmarkKeys.KeyType keyType, int requestsPerClient)
+            throws Exception {
+        BenchmarkRepository.installJaasConfiguration();
+
+        List<KeyPair> keyPairs = BenchmarkKeys.getKeyPairs(keyType);
+        List<String> authorizedKeys = new ArrayList<String>(keyPairs.size());
+        List<File> keyFiles = new ArrayList<File>(keyPairs.size());
+        for (KeyPair keyPair : keyPairs) {
+            String entry = BenchmarkKeys.toAuthorizedKey(keyType, keyPair);
+            authorizedKeys.add(entry);
+            keyFiles.add(BenchmarkRepository.writeAuthorizedKeys(entry));
+        }
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(HttpsigConfiguration.PARAM_SKEW, Fixture.SKEW);
+        parameters.put(HttpsigConfiguration.PARAM_RELOAD_INTERVAL, 0L);
+        parameters.put(HttpsigConfiguration.PARAM_KEYS_PROPERTY, "");
+        for (int i = 0; i < clientCount; i++) {
+            parameters.put(HttpsigConfiguration.PARAM_PREFIX_SSHKEYS + getUserId(i),
+                    keyFiles.get(i % keyFiles.size()).getAbsolutePath());
+        }
+
+        NodeStore store = new MemoryNodeStore();
+        List<ContentRepository> nodes = new ArrayList<ContentRepository>(nodeCount);
+        List<BenchmarkSecurityProvider> securityProviders = new ArrayList<BenchmarkSecurityProvider>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            BenchmarkSecurityProvider securityProvider = new BenchmarkSecurityProvider(parameters);
+            securityProviders.add(securityProvider);
+            nodes.add(new Oak(store)
+                    .with(new InitialContent())
+                    .with(new PropertyIndexEditorProvider())
+                    .with(new PropertyIndexProvider())
+                    .with(securityProvider)
+                    .createContentRepository());
+        }
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.securityProviders = Collections.unmodifiableList(securityProviders);
+
+        createUsers(clientCount);
+
+        List<LoadTestClient> clients = new ArrayList<LoadTestClient>(clientCount);
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(new LoadTestClient(getUserId(i), keyType, keyPairs.get(i % keyPairs.size()),
+                    authorizedKeys.get(i % authorizedKeys.size()),
+                    securityProviders.get(0).getHttpsigConfiguration().getChallenge(), requestsPerClient));
+        }
+        this.clients = Collections.unmodifiableList(clients);
+    }
+
+    public static String getUserId(int index) {
+        return "loadtest-" + index;
+    }
+
+    /**
+     * Stops the httpsig configurations of all nodes.
+     */
+    @Override
+    public void close() {
+        for (BenchmarkSecurityProvider securityProvider : securityProviders) {
+            securityProvider.close();
+        }
+    }
+
+    public List<ContentRepository> getNodes() {
+        return nodes;
+    }
+
+    public List<LoadTestClient> getClients() {
+        return clients;
+    }
+
+    private void createUsers(int clientCount) throws Exception {
+        ContentSession session = nodes.get(0).login(new SimpleCredentials("admin", "admin".toCharArray()), null);
+        try {
+            Root root = session.getLatestRoot();
+            UserManager userManager = securityProviders.get(0).getConfiguration(UserConfiguration.class)
+                    .getUserManager(root, NamePathMapper.DEFAULT);
+            for (int i = 0; i < clientCount; i++) {
+                userManager.createUser(getUserId(i), null);
+            }
+            root.commit();
+        } finally {
+            session.close();
+        }
+    }
+}
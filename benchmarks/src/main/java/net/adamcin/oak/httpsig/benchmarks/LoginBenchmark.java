@@ -0,0 +1,117 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.ContentSession;
+import org.apache.jackrabbit.oak.namepath.NamePathMapper;
+import org.apache.jackrabbit.oak.spi.security.principal.PrincipalConfiguration;
+import org.apache.jackrabbit.oak.spi.security.principal.PrincipalProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.security.auth.login.LoginException;
+import java.security.Principal;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Principal resolution phase and the full {@link net.adamcin.oak.httpsig.impl.HttpsigLoginModule#login()} through
+ * {@link ContentRepository#login(javax.jcr.Credentials, String)} on an in-memory Oak repository. Logins with an
+ * invalid signature fall through to the default login module and fail with a {@link LoginException}, which is
+ * returned rather than thrown.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoginBenchmark {
+
+    @Param({"10", "1000"})
+    public int keyCount;
+
+    @Param({"RSA", "DSA"})
+    public BenchmarkKeys.KeyType keyType;
+
+    @Param({"true", "false"})
+    public boolean validSignature;
+
+    private BenchmarkRepository repository;
+    private ContentSession adminSession;
+    private PrincipalProvider principalProvider;
+    private HttpsigCredentials credentials;
+    private String userId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fixture fixture = new Fixture(keyType, keyCount, validSignature);
+        this.repository = new BenchmarkRepository(fixture, keyCount);
+        this.adminSession = repository.loginAdmin();
+        this.principalProvider = repository.getSecurityProvider().getConfiguration(PrincipalConfiguration.class)
+                .getPrincipalProvider(adminSession.getLatestRoot(), NamePathMapper.DEFAULT);
+        this.credentials = fixture.newCredentials(repository.getSecurityProvider().getHttpsigConfiguration()
+                .getChallenge());
+        this.userId = fixture.getUserId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        adminSession.close();
+        repository.close();
+    }
+
+    @Benchmark
+    public Set<? extends Principal> principalResolution() {
+        return principalProvider.getPrincipals(userId);
+    }
+
+    @Benchmark
+    public Object login() throws Exception {
+        try {
+            ContentSession session = repository.getRepository().login(credentials, null);
+            session.close();
+            return session;
+        } catch (LoginException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.benchmarks;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+import net.adamcin.oak.httpsig.impl.JCRKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing string construction and crypto verify phases, for each key type and for valid and invalid signatures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SignatureBenchmark {
+
+    @Param({"RSA", "DSA"})
+    public BenchmarkKeys.KeyType keyType;
+
+    @Param({"true", "false"})
+    public boolean validSignature;
+
+    private RequestContent requestContent;
+    private List<String> headers;
+    private JCRKey key;
+    private Algorithm algorithm;
+    private byte[] contentBytes;
+    private byte[] signatureBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fixture fixture = new Fixture(keyType, BenchmarkKeys.POOL_SIZE, validSignature);
+        this.requestContent = fixture.getRequestContent();
+        this.headers = fixture.getAuthorization().getHeaders();
+        this.key = fixture.getKey();
+        this.algorithm = fixture.getAuthorization().getAlgorithm();
+        this.contentBytes = fixture.getContentBytes();
+        this.signatureBytes = fixture.getSignatureBytes();
+    }
+
+    @Benchmark
+    public byte[] signingString() {
+        return requestContent.getContent(headers, Constants.CHARSET);
+    }
+
+    @Benchmark
+    public boolean cryptoVerify() {
+        return key.verify(algorithm, contentBytes, signatureBytes);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig;
+
+import net.adamcin.httpsig.api.Verifier;
+import net.adamcin.httpsig.api.VerifyResult;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link Verifier} which can also run verifications on a dedicated, bounded pool of threads, so that non-blocking
+ * front-ends can authenticate requests without parking their own threads. The outcome is remembered for the
+ * credentials instance, so that a following JAAS login with the same credentials completes without verifying the
+ * signature again.
+ */
+public interface AsyncVerifier extends Verifier {
+
+    /**
+     * Submits the verification of the credentials to the verification pool. Key selection, the request checks,
+     * failure rate limiting, replay protection and stats are applied as for a login. If no key is selected, nothing is
+     * remembered, so that the login can still load the keys of the user from the repository.
+     * @param credentials the credentials to verify, which should be passed to the login once the result is known
+     * @param callback notified when the verification completes, or null
+     * @return a future for the verification result
+     * @throws RejectedExecutionException if the pool and its queue are saturated, in which case the caller should
+     *                                    shed the request rather than retry immediately
+     */
+    Future<VerifyResult> verifyAsync(HttpsigCredentials credentials, VerifyCallback callback)
+            throws RejectedExecutionException;
+}
@@ -0,0 +1,127 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig;
+
+import java.util.Arrays;
+
+/**
+ * Codec for the standard base64 alphabet of RFC 4648, used for public key blobs and digest header values, so that
+ * the bundle does not depend on {@code javax.xml.bind}, which is not part of the JDK since Java 11. Part of the API
+ * package because {@link BodyDigest} decodes with it, and the API must not depend on the implementation.
+ */
+public final class Base64 {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            VALUES[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private Base64() {
+    }
+
+    /**
+     * Encodes bytes as a padded base64 string.
+     * @param bytes the bytes to encode
+     * @return the base64 string
+     */
+    public static String encode(byte[] bytes) {
+        StringBuilder encoded = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = Math.min(3, bytes.length - i);
+            int bits = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) {
+                bits |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                bits |= bytes[i + 2] & 0xff;
+            }
+            encoded.append(ALPHABET.charAt((bits >> 18) & 0x3f));
+            encoded.append(ALPHABET.charAt((bits >> 12) & 0x3f));
+            encoded.append(remaining > 1 ? ALPHABET.charAt((bits >> 6) & 0x3f) : '=');
+            encoded.append(remaining > 2 ? ALPHABET.charAt(bits & 0x3f) : '=');
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Decodes a base64 string. Whitespace is ignored and trailing padding is optional.
+     * @param encoded the base64 string
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the string contains characters outside of the alphabet, padding before the
+     *                                  end, or a dangling final character
+     */
+    public static byte[] decode(String encoded) {
+        byte[] out = new byte[encoded.length() * 3 / 4];
+        int length = 0;
+        int bits = 0;
+        int count = 0;
+        boolean padded = false;
+        for (int i = 0; i < encoded.length(); i++) {
+            char c = encoded.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c == '=') {
+                padded = true;
+                continue;
+            }
+            int value = c < 128 ? VALUES[c] : -1;
+            if (value < 0 || padded) {
+                throw new IllegalArgumentException("Invalid base64 character at index " + i);
+            }
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                out[length++] = (byte) (bits >> 16);
+                out[length++] = (byte) (bits >> 8);
+                out[length++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1) {
+            throw new IllegalArgumentException("Truncated base64 string");
+        } else if (count == 2) {
+            out[length++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            out[length++] = (byte) (bits >> 10);
+            out[length++] = (byte) (bits >> 2);
+        }
+        if (length == out.length) {
+            return out;
+        }
+        byte[] trimmed = new byte[length];
+        System.arraycopy(out, 0, trimmed, 0, length);
+        return trimmed;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Incremental check of a request body against a signed RFC 3230 {@code Digest} header, so that large bodies can be
+ * tied to the request signature while they stream through, without being buffered. Obtained from
+ * {@link HttpsigCredentials#getBodyDigest()} when the digest header is among the signed headers.
+ * <p>
+ * A signed digest header with no supported algorithm, or with a malformed value, yields an unsupported digest, which
+ * never matches the body, so that a request whose body cannot be checked is not mistaken for one with an unsigned
+ * body.
+ */
+public final class BodyDigest {
+
+    /**
+     * Name of the request header holding the body digest.
+     */
+    public static final String HEADER_DIGEST = "digest";
+
+    /**
+     * Supported digest algorithms, in order of preference.
+     */
+    private static final String[] ALGORITHMS = {"SHA-512", "SHA-256"};
+
+    private final String algorithm;
+    private final byte[] expected;
+    private final MessageDigest digest;
+    private boolean finished;
+    private boolean verified;
+
+    private BodyDigest(String algorithm, byte[] expected, MessageDigest digest) {
+        this.algorithm = algorithm;
+        this.expected = expected;
+        this.digest = digest;
+    }
+
+    /**
+     * Parses a digest header value of the form "algorithm=base64[,algorithm=base64...]".
+     * @param headerValue the digest header value
+     * @return a digest for the strongest supported algorithm in the header, an unsupported digest if there is none
+     * or its value is malformed, or null if the header value is null
+     */
+    public static BodyDigest parse(String headerValue) {
+        if (headerValue == null) {
+            return null;
+        }
+        String[] instances = headerValue.split(",");
+        for (String algorithm : ALGORITHMS) {
+            for (String instance : instances) {
+                int eq = instance.indexOf('=');
+                if (eq > 0 && algorithm.equalsIgnoreCase(instance.substring(0, eq).trim())) {
+                    try {
+                        byte[] expected = Base64.decode(instance.substring(eq + 1).trim());
+                        return new BodyDigest(algorithm, expected, MessageDigest.getInstance(algorithm));
+                    } catch (NoSuchAlgorithmException e) {
+                        break;
+                    } catch (IllegalArgumentException e) {
+                        return new BodyDigest(null, null, null);
+                    }
+                }
+            }
+        }
+        return new BodyDigest(null, null, null);
+    }
+
+    /**
+     * @return true if the header has a supported algorithm, so that the body can match it
+     */
+    public boolean isSupported() {
+        return digest != null;
+    }
+
+    /**
+     * @return the digest algorithm, e.g. "SHA-256", or null if not supported
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @param bytes the next bytes of the body
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     */
+    public void update(byte[] bytes, int offset, int length) {
+        checkNotFinished();
+        if (digest != null) {
+            digest.update(bytes, offset, length);
+        }
+    }
+
+    /**
+     * @param bytes the next bytes of the body
+     */
+    public void update(ByteBuffer bytes) {
+        checkNotFinished();
+        if (digest != null) {
+            digest.update(bytes);
+        }
+    }
+
+    /**
+     * Completes the digest once the whole body has been read. Subsequent calls return the same result.
+     * @return true if the body matches the digest header, which is never the case if it is not supported
+     */
+    public boolean finish() {
+        if (!finished) {
+            finished = true;
+            verified = digest != null && MessageDigest.isEqual(expected, digest.digest());
+        }
+        return verified;
+    }
+
+    /**
+     * @return true if {@link #finish()} has been called
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Wraps the request body so that the digest is updated as it is read, and finished when the end of the stream
+     * is reached.
+     * @param body the request body
+     * @return a stream which throws an {@link IOException} at the end of the body if it does not match the digest
+     */
+    public InputStream wrap(InputStream body) {
+        return new DigestInputStream(body);
+    }
+
+    private void checkNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("body digest is already finished");
+        }
+    }
+
+    private final class DigestInputStream extends FilterInputStream {
+
+        private DigestInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                checkDigest();
+            } else if (!finished && digest != null) {
+                digest.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = in.read(bytes, offset, length);
+            if (read < 0) {
+                checkDigest();
+            } else if (!finished && digest != null) {
+                digest.update(bytes, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192L)];
+            long skipped = 0L;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        private void checkDigest() throws IOException {
+            if (!finish()) {
+                throw new IOException(isSupported()
+                        ? "request body does not match the signed " + algorithm + " digest"
+                        : "signed digest header has no supported algorithm");
+            }
+        }
+    }
+}
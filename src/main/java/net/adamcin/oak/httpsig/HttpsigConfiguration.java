@@ -33,6 +33,7 @@ import net.adamcin.httpsig.api.Verifier;
 import org.apache.jackrabbit.oak.spi.security.SecurityConfiguration;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Created by madamcin on 3/23/14.
@@ -45,9 +46,209 @@ public interface HttpsigConfiguration extends SecurityConfiguration {
 
     String PARAM_SKEW = "httpsig.skew";
 
+    /**
+     * Interval in milliseconds between checks of the configured authorized_keys files for changes. Set to 0 to
+     * disable reloading.
+     */
+    String PARAM_RELOAD_INTERVAL = "httpsig.reloadInterval";
+
+    /**
+     * Set to true to reject a signature which has already been accepted within the skew window. Requires the date
+     * header to be signed. Accepted signatures are remembered in memory, or in the {@link ReplayStore} bound to the
+     * configuration or passed as the value of {@link #PARAM_REPLAY_STORE}. Ignored when the skew is negative.
+     */
+    String PARAM_REPLAY_PROTECTION = "httpsig.replayProtection";
+
+    /**
+     * Parameter holding a {@link ReplayStore} instance to use instead of the in-memory store, when not running in
+     * OSGi.
+     */
+    String PARAM_REPLAY_STORE = "httpsig.replayStore";
+
+    /**
+     * Path of a binary snapshot of the keys loaded from authorized_keys files, which is restored on activation for
+     * files unchanged since it was written, and rewritten whenever a file is reloaded. Empty to disable. The snapshot
+     * is only used when {@link #PARAM_SNAPSHOT_SECRET} is also set.
+     */
+    String PARAM_SNAPSHOT_FILE = "httpsig.snapshotFile";
+
+    /**
+     * Secret with which the keychain snapshot is authenticated, so that a snapshot written by anyone without access
+     * to the configuration is ignored instead of supplying keys. It should be long and random.
+     */
+    String PARAM_SNAPSHOT_SECRET = "httpsig.snapshotSecret";
+
+    /**
+     * Milliseconds to wait for modified authorized_keys files to be loaded in parallel. Files which take longer keep
+     * their previously loaded keys until their load completes, which is picked up by the next reload.
+     */
+    String PARAM_LOAD_TIMEOUT = "httpsig.loadTimeout";
+
+    long DEFAULT_LOAD_TIMEOUT = 30000L;
+
+    long DEFAULT_RELOAD_INTERVAL = 30000L;
+
+    /**
+     * Name of the multi-valued user property holding OpenSSH public key entries, such as "authorizedKeys". Keys
+     * stored in the repository are an additional source of credentials, so loading them is disabled unless a
+     * property name is configured.
+     */
+    String PARAM_KEYS_PROPERTY = "httpsig.keysProperty";
+
+    String DEFAULT_KEYS_PROPERTY = "";
+
+    /**
+     * Maximum number of users whose repository keys are cached.
+     */
+    String PARAM_KEYS_CACHE_SIZE = "httpsig.keysCacheSize";
+
+    int DEFAULT_KEYS_CACHE_SIZE = 1000;
+
+    /**
+     * Milliseconds for which a userId named by a keyId is remembered as unknown after failing to resolve to a user,
+     * so that requests for unknown users do not query the repository every time.
+     */
+    String PARAM_KEYS_MISSING_TTL = "httpsig.keysMissingTtl";
+
+    long DEFAULT_KEYS_MISSING_TTL = 60000L;
+
+    /**
+     * Maximum number of users whose principals are cached after a successful login. Set to 0 to disable the cache.
+     */
+    String PARAM_PRINCIPAL_CACHE_SIZE = "httpsig.principalCacheSize";
+
+    int DEFAULT_PRINCIPAL_CACHE_SIZE = 1000;
+
+    /**
+     * Time to live in milliseconds of cached principals.
+     */
+    String PARAM_PRINCIPAL_CACHE_TTL = "httpsig.principalCacheTtl";
+
+    long DEFAULT_PRINCIPAL_CACHE_TTL = 60000L;
+
+    /**
+     * Set to true to issue a short-lived Oak login token after a successful signature login whose client requests
+     * one, by setting the {@link #TOKEN_ATTRIBUTE} attribute of the {@link HttpsigCredentials} to an empty string
+     * like for an Oak token login. The token is returned in the same attribute, and is bound to the key fingerprint
+     * by the mandatory {@link #TOKEN_ATTRIBUTE_FINGERPRINT} token attribute, which must be presented as an attribute
+     * of the token credentials of later requests.
+     * <p>
+     * Each token is a node below the user's {@code .tokens} node. The Oak token provider removes an expired token
+     * only when it is presented again, so tokens which clients never use accumulate until they are purged. Clients
+     * should only request a token when they will reuse it for the requests that follow.
+     */
+    String PARAM_ISSUE_TOKEN = "httpsig.issueToken";
+
+    /**
+     * Expiration time in milliseconds of issued login tokens.
+     */
+    String PARAM_TOKEN_EXPIRATION = "httpsig.tokenExpiration";
+
+    long DEFAULT_TOKEN_EXPIRATION = 60000L;
+
+    /**
+     * Credentials attribute requesting a login token when set to an empty string, and holding the issued token after
+     * the login.
+     */
+    String TOKEN_ATTRIBUTE = ".token";
+
+    String TOKEN_ATTRIBUTE_FINGERPRINT = ".token.httpsig.fingerprint";
+
+    /**
+     * Number of threads verifying signatures submitted to the {@link #getAsyncVerifier()}. Defaults to the number of
+     * available processors.
+     */
+    String PARAM_VERIFY_THREADS = "httpsig.verifyThreads";
+
+    /**
+     * Maximum number of verifications waiting for a thread before the {@link #getAsyncVerifier()} rejects new ones.
+     */
+    String PARAM_VERIFY_QUEUE_SIZE = "httpsig.verifyQueueSize";
+
+    int DEFAULT_VERIFY_QUEUE_SIZE = 1000;
+
+    /**
+     * Number of failed verifications allowed in a burst for the same key before further attempts with it are
+     * rejected without verification. Rejected attempts fail like a bad signature, so a key becoming limited is logged
+     * as a warning and each rejection is counted in the stats. Set to 0 to disable failure rate limiting.
+     */
+    String PARAM_FAILURE_BURST = "httpsig.failureBurst";
+
+    int DEFAULT_FAILURE_BURST = 10;
+
+    /**
+     * Milliseconds after which one failed verification is forgiven.
+     */
+    String PARAM_FAILURE_INTERVAL = "httpsig.failureInterval";
+
+    long DEFAULT_FAILURE_INTERVAL = 1000L;
+
+    /**
+     * Set to true to write an audit event for every signature login to the
+     * {@code net.adamcin.oak.httpsig.audit} logger. Events are handed to a background thread through a bounded
+     * queue, and dropped when it is full.
+     */
+    String PARAM_AUDIT = "httpsig.audit";
+
+    /**
+     * Maximum number of audit events waiting to be written before new events are dropped.
+     */
+    String PARAM_AUDIT_QUEUE_SIZE = "httpsig.auditQueueSize";
+
+    int DEFAULT_AUDIT_QUEUE_SIZE = 8192;
+
+    /**
+     * Set to true for {@link #getChallenge(String)} to narrow the challenge to the algorithms of the key named by a
+     * client's keyId hint, so that the client can sign its next request with an algorithm its key supports.
+     */
+    String PARAM_KEY_CHALLENGES = "httpsig.keyChallenges";
+
+    /**
+     * Number of recent verification outcomes to remember, so that retried requests with the same signature are
+     * answered without repeating the crypto. Set to 0 to disable, which is the default. The cache is also disabled
+     * when {@link #PARAM_REPLAY_PROTECTION} is enabled, since a retried signature is then rejected as a replay.
+     */
+    String PARAM_VERIFY_CACHE_SIZE = "httpsig.verifyCacheSize";
+
+    /**
+     * Milliseconds for which a verification outcome is remembered. Limited to half the skew.
+     */
+    String PARAM_VERIFY_CACHE_TTL = "httpsig.verifyCacheTtl";
+
+    long DEFAULT_VERIFY_CACHE_TTL = 5000L;
+
+    /**
+     * Key of the shared state entry in which the login module publishes the principals of a user it has verified,
+     * next to the credentials and login name, so that later modules in the chain need not resolve them again.
+     */
+    String SHARED_KEY_PRINCIPALS = "net.adamcin.oak.httpsig.principals";
+
     @Nonnull
     Challenge getChallenge();
 
+    /**
+     * Returns the challenge for a client which has announced the keyId it will sign with. If enabled by
+     * {@link #PARAM_KEY_CHALLENGES} and the key is known, the challenge only advertises the key's algorithms.
+     * Otherwise, it is the same as {@link #getChallenge()}.
+     * @param keyId the keyId hint of the client, if any
+     * @return the challenge
+     */
+    @Nonnull
+    Challenge getChallenge(@Nullable String keyId);
+
+    /**
+     * @param keyId the keyId hint of the client, if any
+     * @return the WWW-Authenticate header value of {@link #getChallenge(String)}, serialized once and cached
+     */
+    @Nonnull
+    String getChallengeHeader(@Nullable String keyId);
+
     @Nonnull
     Verifier getVerifier();
+
+    /**
+     * @return a verifier which can also run verifications on a dedicated, bounded thread pool
+     */
+    @Nonnull
+    AsyncVerifier getAsyncVerifier();
 }
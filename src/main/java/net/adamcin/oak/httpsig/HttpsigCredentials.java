@@ -32,6 +32,10 @@ import net.adamcin.httpsig.api.Challenge;
 import net.adamcin.httpsig.api.RequestContent;
 
 import javax.jcr.Credentials;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by madamcin on 3/23/14.
@@ -41,6 +45,9 @@ public final class HttpsigCredentials implements Credentials {
     private Challenge challenge;
     private Authorization authorization;
     private RequestContent requestContent;
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    private BodyDigest bodyDigest;
+    private boolean bodyDigestParsed;
 
     public HttpsigCredentials(Challenge challenge, Authorization authorization, RequestContent requestContent) {
         this.challenge = challenge;
@@ -59,4 +66,83 @@ public final class HttpsigCredentials implements Credentials {
     public RequestContent getRequestContent() {
         return requestContent;
     }
+
+    /**
+     * Returns the handle for checking the request body against the {@link BodyDigest#HEADER_DIGEST} header, when
+     * that header is covered by the signature. The caller reads the body through {@link BodyDigest#wrap(InputStream)}
+     * or feeds it to {@link BodyDigest#update(byte[], int, int)} and checks {@link BodyDigest#finish()}. If the
+     * signed header has no supported algorithm, the digest is not {@link BodyDigest#isSupported() supported} and
+     * never matches the body.
+     * @return the body digest, or null if the digest header is not signed
+     */
+    public synchronized BodyDigest getBodyDigest() {
+        if (!bodyDigestParsed) {
+            bodyDigestParsed = true;
+            if (authorization != null && requestContent != null && isSigned(BodyDigest.HEADER_DIGEST)) {
+                List<String> values = requestContent.getHeaderValues(BodyDigest.HEADER_DIGEST);
+                if (values != null && !values.isEmpty()) {
+                    StringBuilder headerValue = new StringBuilder();
+                    for (String value : values) {
+                        if (headerValue.length() > 0) {
+                            headerValue.append(',');
+                        }
+                        headerValue.append(value);
+                    }
+                    bodyDigest = BodyDigest.parse(headerValue.toString());
+                }
+            }
+        }
+        return bodyDigest;
+    }
+
+    private boolean isSigned(String header) {
+        List<String> headers = authorization.getHeaders();
+        if (headers != null) {
+            for (String signed : headers) {
+                if (header.equalsIgnoreCase(signed)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param name the attribute name
+     * @return the attribute value, or null if not set
+     */
+    public Object getAttribute(String name) {
+        synchronized (attributes) {
+            return attributes.get(name);
+        }
+    }
+
+    /**
+     * Sets an attribute, or removes it if {@code value} is null. Used to request a login token, by setting
+     * {@link HttpsigConfiguration#TOKEN_ATTRIBUTE} to an empty string, and to return the token issued by a
+     * successful login to the caller under the same name.
+     * @param name the attribute name
+     * @param value the attribute value
+     */
+    public void setAttribute(String name, Object value) {
+        if (name == null) {
+            throw new IllegalArgumentException("name cannot be null");
+        }
+        synchronized (attributes) {
+            if (value == null) {
+                attributes.remove(name);
+            } else {
+                attributes.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * @return the names of the attributes currently set
+     */
+    public String[] getAttributeNames() {
+        synchronized (attributes) {
+            return attributes.keySet().toArray(new String[attributes.size()]);
+        }
+    }
 }
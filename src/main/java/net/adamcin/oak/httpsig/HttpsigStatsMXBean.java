@@ -0,0 +1,106 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig;
+
+import java.util.Map;
+
+/**
+ * Management interface for the signature verification statistics of an {@link HttpsigConfiguration}, registered
+ * with the platform MBean server under {@link #OBJECT_NAME}.
+ */
+public interface HttpsigStatsMXBean {
+
+    String OBJECT_NAME = "net.adamcin.oak.httpsig:type=HttpsigStats";
+
+    /**
+     * @return the number of verifications by {@link net.adamcin.httpsig.api.VerifyResult} name
+     */
+    Map<String, Long> getVerifyResultCounts();
+
+    /**
+     * @return the number of verifications by {@link net.adamcin.httpsig.api.Algorithm} name
+     */
+    Map<String, Long> getAlgorithmCounts();
+
+    long getKeySelectionCount();
+
+    double getKeySelectionMeanMicros();
+
+    long getKeySelection99thPercentileMicros();
+
+    /**
+     * @return the number of key selections by latency bucket upper bound
+     */
+    Map<String, Long> getKeySelectionHistogram();
+
+    long getVerifyCount();
+
+    double getVerifyMeanMicros();
+
+    long getVerify99thPercentileMicros();
+
+    /**
+     * @return the number of signature verifications by latency bucket upper bound
+     */
+    Map<String, Long> getVerifyHistogram();
+
+    /**
+     * @return the number of verifications rejected without crypto because of too many recent failures for the key
+     */
+    long getRateLimitedCount();
+
+    /**
+     * @return the number of valid signatures rejected because they had already been accepted
+     */
+    long getReplayRejectedCount();
+
+    /**
+     * @return the number of verifications answered from the cache of recent outcomes
+     */
+    long getVerifyCacheHitCount();
+
+    /**
+     * @return the number of audit events dropped because the audit queue was full
+     */
+    long getAuditDroppedCount();
+
+    /**
+     * @return the number of keys loaded from authorized_keys files
+     */
+    int getKeychainSize();
+
+    /**
+     * @return the number of times the keychain has been loaded or reloaded
+     */
+    long getKeychainReloadCount();
+
+    /**
+     * Resets all counters and histograms, except for the keychain size and reload count.
+     */
+    void resetStatistics();
+}
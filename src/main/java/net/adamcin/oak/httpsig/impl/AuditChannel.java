@@ -0,0 +1,166 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free channel which hands {@link AuditEvent}s from login threads to a single background thread,
+ * which writes them to the {@value #LOGGER_NAME} logger. Publishing never blocks: when the ring buffer is full, the
+ * event is dropped and counted instead.
+ * <p>
+ * Producers claim a sequence number with a compare-and-set on the tail and then store the event in its slot. The
+ * consumer takes events in sequence order as their slots fill, clears each slot before advancing the head, and parks
+ * while the buffer is empty. It raises a flag before parking, so that producers only pay for an unpark when it is
+ * idle.
+ */
+public final class AuditChannel {
+
+    public static final String LOGGER_NAME = "net.adamcin.oak.httpsig.audit";
+
+    private static final Logger AUDIT = LoggerFactory.getLogger(LOGGER_NAME);
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuditChannel.class);
+    private static final long CLOSE_TIMEOUT = 5000L;
+
+    private final AtomicReferenceArray<AuditEvent> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final HttpsigStats stats;
+    private final Thread consumer;
+    private volatile boolean running = true;
+    private volatile boolean waiting;
+
+    /**
+     * @param name the name of the consumer thread
+     * @param capacity the number of events which may wait to be written, rounded up to a power of two
+     * @param stats optional stats in which to record dropped events
+     */
+    public AuditChannel(String name, int capacity, HttpsigStats stats) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<AuditEvent>(size);
+        this.mask = size - 1;
+        this.stats = stats;
+        this.consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, name);
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * @param event the event to write
+     * @return true if the event was queued, false if it was dropped because the channel is full or closed
+     */
+    public boolean publish(AuditEvent event) {
+        while (running) {
+            long sequence = tail.get();
+            if (sequence - head >= slots.length()) {
+                break;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                slots.set((int) sequence & mask, event);
+                if (waiting) {
+                    LockSupport.unpark(consumer);
+                }
+                return true;
+            }
+        }
+        droppedCount.incrementAndGet();
+        if (stats != null) {
+            stats.recordAuditDropped();
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of events dropped since the channel was created
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the number of events waiting to be written
+     */
+    public int getPendingCount() {
+        return (int) (tail.get() - head);
+    }
+
+    /**
+     * Stops accepting events, and waits a short time for the consumer to write those already published.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume() {
+        long sequence = head;
+        while (true) {
+            int index = (int) sequence & mask;
+            AuditEvent event = slots.get(index);
+            if (event != null) {
+                slots.set(index, null);
+                head = ++sequence;
+                write(event);
+            } else if (running) {
+                // recheck the slot after raising the flag, since a producer may have filled it without signalling
+                waiting = true;
+                if (slots.get(index) == null && running) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static void write(AuditEvent event) {
+        try {
+            AUDIT.info("{}", event);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to write audit event: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.VerifyResult;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable record of one signature login attempt, published to an {@link AuditChannel}.
+ */
+public final class AuditEvent {
+
+    private final long timestamp;
+    private final String keyId;
+    private final String fingerprint;
+    private final String userId;
+    private final VerifyResult result;
+    private final long latencyNanos;
+
+    /**
+     * @param timestamp the time of the attempt in milliseconds since the epoch
+     * @param keyId the keyId of the Authorization, if any
+     * @param fingerprint the fingerprint of the selected key, if any
+     * @param userId the user of the selected key, if any
+     * @param result the verification result
+     * @param latencyNanos the time taken by the attempt
+     */
+    public AuditEvent(long timestamp, String keyId, String fingerprint, String userId, VerifyResult result,
+                      long latencyNanos) {
+        this.timestamp = timestamp;
+        this.keyId = keyId;
+        this.fingerprint = fingerprint;
+        this.userId = userId;
+        this.result = result;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public VerifyResult getResult() {
+        return result;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * The keyId comes from the client as given, so string values are quoted, with quotes, backslashes and control
+     * characters escaped, so that no value can break out of its field or start a new log line.
+     * @return the event as space-separated key=value pairs, as written to the audit log
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(160);
+        builder.append("timestamp=").append(timestamp);
+        builder.append(" result=").append(result);
+        appendQuoted(builder.append(" keyId="), keyId);
+        appendQuoted(builder.append(" fingerprint="), fingerprint);
+        appendQuoted(builder.append(" userId="), userId);
+        builder.append(" latencyMicros=").append(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        return builder.toString();
+    }
+
+    private static void appendQuoted(StringBuilder builder, String value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else if (c == '\r') {
+                builder.append("\\r");
+            } else if (c == '\t') {
+                builder.append("\\t");
+            } else if (Character.isISOControl(c) || c == '\u2028' || c == '\u2029') {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Tracks an authorized_keys file configured for a single user, so that it is only reparsed when its last modified
+ * time or length has changed since it was last read. Keeps the CRC-32 of the contents last read, so that keys
+ * restored from a {@link KeychainSnapshot} can be checked against the file.
+ */
+public final class AuthorizedKeysFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizedKeysFile.class);
+
+    private final String userId;
+    private final File file;
+    private volatile long lastModified = -1L;
+    private volatile long length = -1L;
+    private long checksum = -1L;
+    private volatile List<JCRKey> keys = Collections.emptyList();
+
+    public AuthorizedKeysFile(String userId, File file) {
+        this.userId = userId;
+        this.file = file;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the keys parsed from the file the last time it was read
+     */
+    public List<JCRKey> getKeys() {
+        return keys;
+    }
+
+    public synchronized long getLastModified() {
+        return lastModified;
+    }
+
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the CRC-32 of the file contents last read, or -1 if the file has not been read
+     */
+    public synchronized long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Adopts keys restored from a snapshot if the file still has the given length, last modified time and checksum,
+     * so that it doesn't need to be parsed.
+     * @return true if the keys were adopted
+     */
+    public synchronized boolean restore(long length, long lastModified, long checksum, List<JCRKey> keys) {
+        if (file.length() != length || file.lastModified() != lastModified) {
+            return false;
+        }
+        try {
+            if (checksum(readBytes()) != checksum) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        this.keys = Collections.unmodifiableList(new ArrayList<JCRKey>(keys));
+        this.lastModified = lastModified;
+        this.length = length;
+        this.checksum = checksum;
+        return true;
+    }
+
+    /**
+     * Compares the file's last modified time and length to those last read, without waiting for a read in progress.
+     * @return true if {@link #refresh()} would reparse the file
+     */
+    public boolean isModified() {
+        return file.lastModified() != lastModified || file.length() != length;
+    }
+
+    /**
+     * Reparses the file if it has been modified since it was last read. If the file can no longer be read, the
+     * previously loaded keys are retained.
+     * @return true if the keys were reloaded
+     */
+    public synchronized boolean refresh() {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (lastModified == this.lastModified && length == this.length) {
+            return false;
+        }
+
+        try {
+            byte[] contents = readBytes();
+            this.keys = parseKeys(contents);
+            this.checksum = checksum(contents);
+            this.lastModified = lastModified;
+            this.length = length;
+            return true;
+        } catch (IOException e) {
+            LOGGER.error(String.format("Failed to load authorized_keys file %s for user %s", file, userId), e);
+            return false;
+        }
+    }
+
+    private byte[] readBytes() throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(file.length(), 1L << 20) + 1);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private List<JCRKey> parseKeys(byte[] contents) throws IOException {
+        List<JCRKey> keys = new ArrayList<JCRKey>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(contents), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            OpenSSHKey key = OpenSSHKey.parse(line);
+            if (key != null) {
+                keys.add(new JCRKey(userId, key));
+            }
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
+    private static long checksum(byte[] contents) {
+        CRC32 crc = new CRC32();
+        crc.update(contents, 0, contents.length);
+        return crc.getValue();
+    }
+}
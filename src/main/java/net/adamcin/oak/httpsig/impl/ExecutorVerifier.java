@@ -0,0 +1,180 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Challenge;
+import net.adamcin.httpsig.api.Key;
+import net.adamcin.httpsig.api.RequestContent;
+import net.adamcin.httpsig.api.Verifier;
+import net.adamcin.httpsig.api.VerifyResult;
+import net.adamcin.oak.httpsig.AsyncVerifier;
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+import net.adamcin.oak.httpsig.VerifyCallback;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link AsyncVerifier} which runs {@link HttpsigAuthentication#verifyAhead(HttpsigCredentials)} on a fixed pool of
+ * daemon threads with a bounded queue, so that the login which follows takes the outcome instead of verifying again.
+ * Submissions are rejected when the queue is full. The synchronous {@link Verifier} methods run on the calling thread
+ * against the delegate.
+ */
+public final class ExecutorVerifier implements AsyncVerifier {
+
+    private final HttpsigAuthentication authentication;
+    private final Verifier delegate;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param authentication the authentication used by logins, which remembers the outcomes
+     * @param delegate the verifier of the synchronous methods
+     * @param name the name prefix of the threads
+     * @param threads the number of threads
+     * @param queueSize the number of verifications which may wait for a thread
+     */
+    public ExecutorVerifier(HttpsigAuthentication authentication, Verifier delegate, final String name, int threads,
+                            int queueSize) {
+        this.authentication = authentication;
+        this.delegate = delegate;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<VerifyResult> verifyAsync(final HttpsigCredentials credentials, VerifyCallback callback) {
+        VerifyTask task = new VerifyTask(new Callable<VerifyResult>() {
+            @Override
+            public VerifyResult call() throws Exception {
+                return authentication.verifyAhead(credentials);
+            }
+        }, callback);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * @return the number of verifications waiting for a thread
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting verifications, interrupts running ones, and cancels queued ones, so that their futures
+     * complete and their callbacks fail with a {@link CancellationException}.
+     */
+    public void shutdown() {
+        for (Runnable queued : executor.shutdownNow()) {
+            if (queued instanceof Future) {
+                ((Future<?>) queued).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSkew() {
+        return delegate.getSkew();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Key selectKey(Authorization authorization) {
+        return delegate.selectKey(authorization);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean verify(Challenge challenge, RequestContent requestContent, Authorization authorization) {
+        return delegate.verify(challenge, requestContent, authorization);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public VerifyResult verifyWithResult(Challenge challenge, RequestContent requestContent,
+                                         Authorization authorization) {
+        return delegate.verifyWithResult(challenge, requestContent, authorization);
+    }
+
+    private static final class VerifyTask extends FutureTask<VerifyResult> {
+        private final VerifyCallback callback;
+
+        private VerifyTask(Callable<VerifyResult> callable, VerifyCallback callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null) {
+                return;
+            }
+            try {
+                callback.completed(get());
+            } catch (ExecutionException e) {
+                callback.failed(e.getCause());
+            } catch (CancellationException e) {
+                callback.failed(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                callback.failed(e);
+            }
+        }
+    }
+}
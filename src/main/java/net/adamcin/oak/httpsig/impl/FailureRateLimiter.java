@@ -0,0 +1,195 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token buckets limiting failed signature verifications per key, so that a caller repeatedly presenting
+ * bad signatures for a known key is rejected before any crypto is attempted.
+ * <p>
+ * Buckets are keyed by the fingerprint of the key selected for the request rather than by the keyId presented, so
+ * that spelling variants of a keyId share the budget of the key they resolve to, and a key is never locked out by
+ * failures against another. Each bucket holds a single theoretical arrival time (the generic cell rate algorithm),
+ * which is equivalent to a token bucket of {@code burst} tokens refilled at one token per interval, and is updated
+ * with a compare-and-set.
+ * <p>
+ * Buckets are only created for failures, and a bucket is dropped once its budget has been restored. When the map
+ * is full, a sweep drops every bucket which is not limiting its key, forgiving failures within the burst, or else
+ * the bucket closest to being restored.
+ * <p>
+ * A key becoming limited is logged as a warning, and every rejected attempt is counted in the stats, since the
+ * verifier can only report it as a failed verification.
+ */
+public final class FailureRateLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FailureRateLimiter.class);
+
+    /**
+     * Arrival time of a bucket which has been dropped from the map, so that a concurrent failure is not charged to it.
+     */
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final int capacity;
+    private final long interval;
+    private final long tolerance;
+    private final long origin = System.nanoTime();
+    private final HttpsigStats stats;
+
+    /**
+     * @param capacity the maximum number of keys with recent failures to track
+     * @param burst the number of failures allowed in a burst
+     * @param intervalMillis the time in which one failure is forgiven
+     * @param stats optional stats in which to record rejected attempts
+     */
+    public FailureRateLimiter(int capacity, int burst, long intervalMillis, HttpsigStats stats) {
+        this.capacity = Math.max(1, capacity);
+        this.interval = Math.max(1L, intervalMillis) * 1000000L;
+        this.tolerance = (Math.max(1, burst) - 1) * this.interval;
+        this.stats = stats;
+    }
+
+    /**
+     * @param fingerprint the fingerprint of the selected key
+     * @return true if attempts with the key should be rejected without verification
+     */
+    public boolean isLimited(String fingerprint) {
+        if (fingerprint == null) {
+            return false;
+        }
+        AtomicLong bucket = buckets.get(fingerprint);
+        if (bucket == null) {
+            return false;
+        }
+        long now = now();
+        long arrival = bucket.get();
+        if (arrival <= now) {
+            retire(fingerprint, bucket, arrival);
+            return false;
+        } else if (arrival - now <= tolerance) {
+            return false;
+        }
+        LOGGER.debug("Rejected attempt with rate-limited key {}", fingerprint);
+        if (stats != null) {
+            stats.recordRateLimited();
+        }
+        return true;
+    }
+
+    /**
+     * Takes a token from the bucket of the key after a failed verification.
+     * @param fingerprint the fingerprint of the selected key
+     */
+    public void recordFailure(String fingerprint) {
+        if (fingerprint == null) {
+            return;
+        }
+        long now = now();
+        for (;;) {
+            AtomicLong bucket = buckets.get(fingerprint);
+            if (bucket == null) {
+                if (buckets.size() >= capacity) {
+                    sweep(now);
+                }
+                AtomicLong created = new AtomicLong(now);
+                bucket = buckets.putIfAbsent(fingerprint, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            long previous = bucket.get();
+            if (previous == REMOVED) {
+                buckets.remove(fingerprint, bucket);
+                continue;
+            }
+            long arrival = Math.max(previous, now);
+            if (bucket.compareAndSet(previous, arrival + interval)) {
+                if (arrival - now <= tolerance && arrival + interval - now > tolerance) {
+                    LOGGER.warn("Too many failed verifications with key {}, rejecting further attempts for {} ms",
+                            fingerprint, (arrival + interval - now - tolerance) / 1000000L);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Makes room for a new bucket. Only one thread sweeps at a time, and others add their bucket regardless, so the
+     * capacity may briefly be exceeded.
+     */
+    private void sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            boolean removed = false;
+            Map.Entry<String, AtomicLong> eldest = null;
+            long eldestArrival = Long.MAX_VALUE;
+            for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+                long arrival = entry.getValue().get();
+                if (arrival == REMOVED) {
+                    continue;
+                } else if (arrival - now <= tolerance) {
+                    removed |= retire(entry.getKey(), entry.getValue(), arrival);
+                } else if (arrival < eldestArrival) {
+                    eldest = entry;
+                    eldestArrival = arrival;
+                }
+            }
+            if (!removed && eldest != null) {
+                retire(eldest.getKey(), eldest.getValue(), eldestArrival);
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * Drops a bucket unless a failure has been charged to it since its arrival time was read.
+     */
+    private boolean retire(String fingerprint, AtomicLong bucket, long arrival) {
+        if (bucket.compareAndSet(arrival, REMOVED)) {
+            buckets.remove(fingerprint, bucket);
+            return true;
+        }
+        return false;
+    }
+
+    private long now() {
+        return System.nanoTime() - origin;
+    }
+}
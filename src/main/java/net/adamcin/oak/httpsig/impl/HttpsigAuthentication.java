@@ -27,7 +27,7 @@
 
 package net.adamcin.oak.httpsig.impl;
 
-import net.adamcin.httpsig.api.DefaultVerifier;
+import net.adamcin.httpsig.api.Authorization;
 import net.adamcin.httpsig.api.Key;
 import net.adamcin.httpsig.api.Verifier;
 import net.adamcin.httpsig.api.VerifyResult;
@@ -35,41 +35,157 @@ import net.adamcin.oak.httpsig.HttpsigCredentials;
 import net.adamcin.httpsig.api.UserKey;
 import org.apache.jackrabbit.oak.spi.security.authentication.Authentication;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.jcr.Credentials;
 import javax.security.auth.login.LoginException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
- * Created by madamcin on 3/23/14.
+ * Thread-safe {@link Authentication} for {@link HttpsigCredentials}, so that a single instance can be shared by
+ * concurrent logins against the same {@link Verifier}. Records key selection and verification latencies and results
+ * in an optional {@link HttpsigStats}.
+ * <p>
+ * Verifications done ahead of the login by {@link #verifyAhead(HttpsigCredentials)} are remembered for the
+ * credentials instance until the login takes them with {@link #takeVerification(HttpsigCredentials)}, or the
+ * credentials are collected. Only this class can record them, so a caller cannot mark credentials as verified.
  */
 public class HttpsigAuthentication implements Authentication {
 
-    private Verifier verifier;
-    private VerifyResult result;
-    private String userId;
+    private final Verifier verifier;
+    private final HttpsigStats stats;
+    private final Map<HttpsigCredentials, Verification> verifications =
+            Collections.synchronizedMap(new WeakHashMap<HttpsigCredentials, Verification>());
 
     public HttpsigAuthentication(Verifier verifier) {
+        this(verifier, null);
+    }
+
+    public HttpsigAuthentication(Verifier verifier, HttpsigStats stats) {
         this.verifier = verifier;
+        this.stats = stats;
     }
 
     public boolean authenticate(Credentials credentials) throws LoginException {
         if (verifier != null && credentials instanceof HttpsigCredentials) {
             HttpsigCredentials creds = (HttpsigCredentials) credentials;
-            Key key = verifier.selectKey(creds.getAuthorization());
-            if (key instanceof UserKey && verifyCredentials(creds)) {
-                userId = ((UserKey) key).getUserId();
-                return true;
+            Verification verification = takeVerification(creds);
+            if (verification != null) {
+                return verification.getResult() == VerifyResult.SUCCESS;
             }
+            return verify(creds, selectUserKey(creds)) == VerifyResult.SUCCESS;
         }
         return false;
     }
 
-    public String getUserId() {
-        return userId;
+    /**
+     * @param credentials the credentials to authenticate
+     * @return the {@link UserKey} selected by the credentials' keyId, or null if none is selected
+     */
+    @CheckForNull
+    public UserKey selectUserKey(@Nonnull HttpsigCredentials credentials) {
+        if (verifier == null || credentials.getAuthorization() == null) {
+            return null;
+        }
+        long start = stats != null ? System.nanoTime() : 0L;
+        Key key = verifier.selectKey(credentials.getAuthorization());
+        if (stats != null) {
+            stats.recordKeySelection(System.nanoTime() - start);
+        }
+        return key instanceof UserKey ? (UserKey) key : null;
+    }
+
+    /**
+     * @param credentials the credentials to authenticate
+     * @param key the key returned by {@link #selectUserKey(HttpsigCredentials)}
+     * @return the result of verifying the credentials' signature, or {@link VerifyResult#KEY_NOT_FOUND} if no key
+     * was selected
+     */
+    @Nonnull
+    public VerifyResult verify(@Nonnull HttpsigCredentials credentials, @Nullable UserKey key) {
+        Authorization authorization = credentials.getAuthorization();
+        VerifyResult result;
+        if (verifier == null || authorization == null) {
+            result = VerifyResult.INCOMPLETE_REQUEST;
+        } else if (key == null) {
+            result = VerifyResult.KEY_NOT_FOUND;
+        } else {
+            long start = stats != null ? System.nanoTime() : 0L;
+            result = verifier.verifyWithResult(credentials.getChallenge(),
+                    credentials.getRequestContent(),
+                    authorization);
+            if (stats != null) {
+                stats.recordVerify(System.nanoTime() - start);
+            }
+        }
+
+        if (stats != null) {
+            stats.recordResult(result, authorization != null ? authorization.getAlgorithm() : null);
+        }
+        return result;
+    }
+
+    /**
+     * Selects the key and verifies the credentials ahead of their login, remembering the outcome for
+     * {@link #takeVerification(HttpsigCredentials)}. If no key is selected, nothing is verified or remembered, since
+     * the login may still find the key elsewhere.
+     * @param credentials the credentials to verify
+     * @return the result of the verification
+     */
+    @Nonnull
+    public VerifyResult verifyAhead(@Nonnull HttpsigCredentials credentials) {
+        if (verifier == null || credentials.getAuthorization() == null) {
+            return VerifyResult.INCOMPLETE_REQUEST;
+        }
+        UserKey key = selectUserKey(credentials);
+        if (key == null) {
+            return VerifyResult.KEY_NOT_FOUND;
+        }
+        VerifyResult result = verify(credentials, key);
+        verifications.put(credentials, new Verification(key, result));
+        return result;
+    }
+
+    /**
+     * Removes and returns the outcome of {@link #verifyAhead(HttpsigCredentials)} for the credentials, so that it is
+     * used by one login at most.
+     * @param credentials the credentials of the login
+     * @return the remembered verification, or null if the credentials were not verified ahead
+     */
+    @CheckForNull
+    public Verification takeVerification(@Nonnull HttpsigCredentials credentials) {
+        return verifications.remove(credentials);
     }
 
-    private boolean verifyCredentials(HttpsigCredentials credentials) throws LoginException {
-        return verifier.verify(credentials.getChallenge(),
-                credentials.getRequestContent(),
-                credentials.getAuthorization());
+    /**
+     * The outcome of a verification done ahead of a login.
+     */
+    public static final class Verification {
+        private final UserKey key;
+        private final VerifyResult result;
+
+        private Verification(UserKey key, VerifyResult result) {
+            this.key = key;
+            this.result = result;
+        }
+
+        /**
+         * @return the key selected for the credentials
+         */
+        @Nonnull
+        public UserKey getKey() {
+            return key;
+        }
+
+        /**
+         * @return the result of verifying the credentials with the key
+         */
+        @Nonnull
+        public VerifyResult getResult() {
+            return result;
+        }
     }
 }
@@ -27,10 +27,10 @@
 
 package net.adamcin.oak.httpsig.impl;
 
+import net.adamcin.httpsig.api.Algorithm;
 import net.adamcin.httpsig.api.Authorization;
 import net.adamcin.httpsig.api.Challenge;
 import net.adamcin.httpsig.api.Constants;
-import net.adamcin.httpsig.api.DefaultKeychain;
 import net.adamcin.httpsig.api.DefaultVerifier;
 import net.adamcin.httpsig.api.Key;
 import net.adamcin.httpsig.api.KeyId;
@@ -38,65 +38,392 @@ import net.adamcin.httpsig.api.Keychain;
 import net.adamcin.httpsig.api.RequestContent;
 import net.adamcin.httpsig.api.Verifier;
 import net.adamcin.httpsig.api.VerifyResult;
-import net.adamcin.httpsig.ssh.jce.AuthorizedKeys;
-import net.adamcin.httpsig.ssh.jce.FingerprintableKey;
+import net.adamcin.oak.httpsig.AsyncVerifier;
 import net.adamcin.oak.httpsig.HttpsigConfiguration;
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+import net.adamcin.oak.httpsig.HttpsigStatsMXBean;
+import net.adamcin.oak.httpsig.ReplayStore;
+import net.adamcin.oak.httpsig.VerifyCallback;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
 import org.apache.jackrabbit.oak.spi.security.ConfigurationBase;
 import org.apache.jackrabbit.oak.spi.security.ConfigurationParameters;
 import org.apache.jackrabbit.oak.spi.security.SecurityProvider;
+import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
+import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Provides a {@link net.adamcin.httpsig.api.DefaultVerifier} for authentication.
+ * Provides a {@link StreamingVerifier} for authentication. Also registered as an
+ * {@link Observer} so that cached repository keys and principals are evicted when they change.
  */
 @Component
-@Service(HttpsigConfiguration.class)
-public final class HttpsigConfigurationImpl extends ConfigurationBase implements HttpsigConfiguration {
+@Service({HttpsigConfiguration.class, Observer.class})
+public final class HttpsigConfigurationImpl extends ConfigurationBase implements HttpsigConfiguration, Observer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpsigConfigurationImpl.class);
     private static final KeyId KEY_ID = new JCRKeyId();
+    private static final int FAILURE_KEYS = 1024;
+    private static final AtomicInteger STATS_INSTANCES = new AtomicInteger();
 
     private String realm;
-    private Keychain keychain;
-    private DefaultVerifier verifier;
-    private Challenge challenge;
     private long skew = DefaultVerifier.DEFAULT_SKEW;
+    private long loadTimeout = DEFAULT_LOAD_TIMEOUT;
+    private volatile boolean keyChallenges;
+    private File snapshotFile;
+    private byte[] snapshotSecret;
+    private FailureRateLimiter failureLimiter;
+    private ReplayCache replayCache;
+    private VerificationCache verificationCache;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY, policy = ReferencePolicy.DYNAMIC,
+            bind = "bindReplayStore", unbind = "unbindReplayStore")
+    private volatile ReplayStore boundReplayStore;
+    private final Map<String, AuthorizedKeysFile> keysFiles = new LinkedHashMap<String, AuthorizedKeysFile>();
+    private volatile RepositoryKeyProvider keyProvider;
+    private volatile PrincipalCache principalCache;
+    private volatile VerifierState state;
+    private final Verifier verifierGuard = new VerifierGuard();
+    private final HttpsigStats stats = new HttpsigStats();
+    private final HttpsigAuthentication authentication = new HttpsigAuthentication(verifierGuard, stats);
+    private ObjectName statsName;
+    private volatile ExecutorVerifier asyncVerifier;
+    private final AsyncVerifier asyncVerifierGuard = new AsyncVerifierGuard();
+    private volatile AuditChannel auditChannel;
+    private ScheduledExecutorService reloadExecutor;
+    private volatile ExecutorService loadExecutor;
+    private final Map<AuthorizedKeysFile, KeysFileLoad> pendingLoads = new HashMap<AuthorizedKeysFile, KeysFileLoad>();
 
     public HttpsigConfigurationImpl() {
     }
 
+    /**
+     * Creates a configuration outside of OSGi, using the parameters of the {@link SecurityProvider}. It must be
+     * started with {@link #start()} before use, and stopped with {@link #stop()}.
+     * @param securityProvider the security provider
+     */
     public HttpsigConfigurationImpl(@Nonnull SecurityProvider securityProvider) {
         super(securityProvider, securityProvider.getParameters(NAME));
     }
 
+    /**
+     * Activates a configuration created outside of OSGi with the parameters of its {@link SecurityProvider}: loads
+     * the keychain, starts the reload, verify and audit threads, and registers the stats MBean.
+     */
+    public void start() {
+        activate(getParameters());
+    }
+
+    /**
+     * Stops the threads and unregisters the stats MBean of a configuration started with {@link #start()}.
+     */
+    public void stop() {
+        deactivate();
+    }
+
     @Activate
     private void activate(Map<String, Object> properties) {
         setParameters(ConfigurationParameters.of(properties));
         this.realm = getParameters().getConfigValue("jaas.realmName", Constants.PREEMPTIVE_CHALLENGE.getRealm());
-        this.keychain = loadKeychain();
-        this.challenge = new Challenge(this.realm, Constants.DEFAULT_HEADERS, this.keychain.getAlgorithms());
         this.skew = getParameters().getConfigValue(PARAM_SKEW, DefaultVerifier.DEFAULT_SKEW);
-        this.verifier = new DefaultVerifier(this.keychain, getKeyId(), this.skew);
+        this.keyChallenges = getParameters().getConfigValue(PARAM_KEY_CHALLENGES, false);
+        int failureBurst = getParameters().getConfigValue(PARAM_FAILURE_BURST, DEFAULT_FAILURE_BURST);
+        if (failureBurst > 0) {
+            long failureInterval = getParameters().getConfigValue(PARAM_FAILURE_INTERVAL, DEFAULT_FAILURE_INTERVAL);
+            this.failureLimiter = new FailureRateLimiter(FAILURE_KEYS, failureBurst, failureInterval, this.stats);
+        } else {
+            this.failureLimiter = null;
+        }
+        Object replayStore = getParameters().get(PARAM_REPLAY_STORE);
+        if (replayStore instanceof ReplayStore) {
+            this.boundReplayStore = (ReplayStore) replayStore;
+        }
+        if (isReplayProtected()) {
+            this.replayCache = newReplayCache(this.boundReplayStore);
+        } else {
+            this.replayCache = null;
+        }
+        this.verificationCache = this.replayCache == null ? newVerificationCache() : null;
+        String keysProperty = getParameters().getConfigValue(PARAM_KEYS_PROPERTY, DEFAULT_KEYS_PROPERTY);
+        if (keysProperty.length() > 0) {
+            int cacheSize = getParameters().getConfigValue(PARAM_KEYS_CACHE_SIZE, DEFAULT_KEYS_CACHE_SIZE);
+            long missingTtl = getParameters().getConfigValue(PARAM_KEYS_MISSING_TTL, DEFAULT_KEYS_MISSING_TTL);
+            this.keyProvider = new RepositoryKeyProvider(getKeyId(), keysProperty, cacheSize, missingTtl);
+        } else {
+            this.keyProvider = null;
+        }
+        int principalCacheSize = getParameters().getConfigValue(PARAM_PRINCIPAL_CACHE_SIZE,
+                DEFAULT_PRINCIPAL_CACHE_SIZE);
+        if (principalCacheSize > 0) {
+            long principalCacheTtl = getParameters().getConfigValue(PARAM_PRINCIPAL_CACHE_TTL,
+                    DEFAULT_PRINCIPAL_CACHE_TTL);
+            ConfigurationParameters userParameters = getUserParameters();
+            this.principalCache = new PrincipalCache(principalCacheSize, principalCacheTtl,
+                    userParameters.getConfigValue(UserConstants.PARAM_USER_PATH, UserConstants.DEFAULT_USER_PATH),
+                    userParameters.getConfigValue(UserConstants.PARAM_GROUP_PATH, UserConstants.DEFAULT_GROUP_PATH));
+        } else {
+            this.principalCache = null;
+        }
+        this.loadTimeout = getParameters().getConfigValue(PARAM_LOAD_TIMEOUT, DEFAULT_LOAD_TIMEOUT);
+        String snapshotPath = getParameters().getConfigValue(PARAM_SNAPSHOT_FILE, "");
+        String snapshotSecret = getParameters().getConfigValue(PARAM_SNAPSHOT_SECRET, "");
+        if (snapshotPath.length() > 0 && snapshotSecret.length() == 0) {
+            LOGGER.warn("Ignoring {} because {} is not set", PARAM_SNAPSHOT_FILE, PARAM_SNAPSHOT_SECRET);
+            snapshotPath = "";
+        }
+        this.snapshotFile = snapshotPath.length() > 0 ? new File(snapshotPath) : null;
+        this.snapshotSecret = snapshotSecret.getBytes(Constants.CHARSET);
+        this.loadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, NAME + ".load-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        synchronized (this.keysFiles) {
+            this.keysFiles.clear();
+            this.pendingLoads.clear();
+            for (String param : getParameters().keySet()) {
+                if (param.startsWith(PARAM_PREFIX_SSHKEYS)) {
+                    String userId = param.substring(PARAM_PREFIX_SSHKEYS.length());
+                    String path = getParameters().getConfigValue(param, "");
+                    this.keysFiles.put(userId, new AuthorizedKeysFile(userId, new File(path)));
+                }
+            }
+            if (this.snapshotFile != null) {
+                int restored = KeychainSnapshot.restore(this.snapshotFile, this.snapshotSecret, this.keysFiles);
+                LOGGER.info("Restored {} of {} authorized_keys files from {}",
+                        new Object[]{restored, this.keysFiles.size(), this.snapshotFile});
+            }
+            reloadKeychain(true);
+        }
+
+        registerStats();
+
+        int verifyThreads = getParameters().getConfigValue(PARAM_VERIFY_THREADS,
+                Runtime.getRuntime().availableProcessors());
+        int verifyQueueSize = getParameters().getConfigValue(PARAM_VERIFY_QUEUE_SIZE, DEFAULT_VERIFY_QUEUE_SIZE);
+        this.asyncVerifier = new ExecutorVerifier(this.authentication, this.verifierGuard, NAME + ".verify",
+                Math.max(1, verifyThreads), Math.max(1, verifyQueueSize));
+
+        if (getParameters().getConfigValue(PARAM_AUDIT, false)) {
+            int auditQueueSize = getParameters().getConfigValue(PARAM_AUDIT_QUEUE_SIZE, DEFAULT_AUDIT_QUEUE_SIZE);
+            this.auditChannel = new AuditChannel(NAME + ".audit", Math.max(1, auditQueueSize), this.stats);
+        }
+
+        long reloadInterval = getParameters().getConfigValue(PARAM_RELOAD_INTERVAL, DEFAULT_RELOAD_INTERVAL);
+        if (reloadInterval > 0L) {
+            this.reloadExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, NAME + ".reload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.reloadExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (keysFiles) {
+                        reloadKeychain(false);
+                    }
+                }
+            }, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Applies changes to the {@code httpsig.sshkeys.*} entries, the skew and the realm in place, loading only the
+     * authorized_keys files of added or changed users into a copy of the current keychain. A skew change resizes the
+     * replay cache, which keeps the signatures it has seen, and rebuilds the verification cache, since both are sized
+     * from it. A changed file which doesn't load within {@link #loadTimeout} keeps the previous keys of its user until
+     * its load completes. Any other change reactivates the configuration.
+     */
+    @Modified
+    private void modified(Map<String, Object> properties) {
+        ConfigurationParameters previous = getParameters();
+        ConfigurationParameters next = ConfigurationParameters.of(properties);
+        Set<String> changed = new HashSet<String>();
+        for (String param : previous.keySet()) {
+            if (!next.containsKey(param) || !sameValue(previous.get(param), next.get(param))) {
+                changed.add(param);
+            }
+        }
+        for (String param : next.keySet()) {
+            if (!previous.containsKey(param)) {
+                changed.add(param);
+            }
+        }
+        for (String param : changed) {
+            if (!param.startsWith(PARAM_PREFIX_SSHKEYS) && !PARAM_SKEW.equals(param)
+                    && !"jaas.realmName".equals(param)) {
+                LOGGER.info("Reactivating after change to {}", param);
+                deactivate();
+                activate(properties);
+                return;
+            }
+        }
+
+        synchronized (this.keysFiles) {
+            setParameters(next);
+            this.realm = getParameters().getConfigValue("jaas.realmName", Constants.PREEMPTIVE_CHALLENGE.getRealm());
+            long skew = getParameters().getConfigValue(PARAM_SKEW, DefaultVerifier.DEFAULT_SKEW);
+            if (skew != this.skew) {
+                this.skew = skew;
+                // the in-memory store and the outcome ttl are both sized from the skew
+                if (!isReplayProtected()) {
+                    this.replayCache = null;
+                } else if (this.replayCache != null) {
+                    this.replayCache = this.replayCache.withSkew(skew);
+                } else {
+                    this.replayCache = newReplayCache(this.boundReplayStore);
+                }
+                this.verificationCache = this.replayCache == null ? newVerificationCache() : null;
+            }
+
+            Map<String, Collection<JCRKey>> userKeys = new LinkedHashMap<String, Collection<JCRKey>>();
+            List<AuthorizedKeysFile> addedFiles = new ArrayList<AuthorizedKeysFile>();
+            for (String param : changed) {
+                if (param.startsWith(PARAM_PREFIX_SSHKEYS)) {
+                    String userId = param.substring(PARAM_PREFIX_SSHKEYS.length());
+                    if (next.containsKey(param)) {
+                        String path = getParameters().getConfigValue(param, "");
+                        AuthorizedKeysFile keysFile = new AuthorizedKeysFile(userId, new File(path));
+                        cancelLoad(this.keysFiles.put(userId, keysFile));
+                        addedFiles.add(keysFile);
+                    } else {
+                        cancelLoad(this.keysFiles.remove(userId));
+                        userKeys.put(userId, Collections.<JCRKey>emptyList());
+                    }
+                }
+            }
+            refreshKeysFiles(addedFiles);
+            for (AuthorizedKeysFile keysFile : addedFiles) {
+                // a file still loading keeps the previous keys of its user until the load completes
+                if (!this.pendingLoads.containsKey(keysFile)) {
+                    userKeys.put(keysFile.getUserId(), keysFile.getKeys());
+                }
+            }
+            if (!userKeys.isEmpty()) {
+                writeSnapshot();
+            }
+
+            IndexedKeychain indexedKeychain = this.state.indexedKeychain.withUserKeys(userKeys);
+            publishState(indexedKeychain);
+            if (!userKeys.isEmpty()) {
+                this.stats.recordKeychainReload(indexedKeychain.size());
+            }
+            LOGGER.info("Updated configuration in place, reloading keys for {} users", userKeys.size());
+        }
+    }
+
+    @Deactivate
+    private void deactivate() {
+        if (this.reloadExecutor != null) {
+            this.reloadExecutor.shutdownNow();
+            this.reloadExecutor = null;
+        }
+        if (this.loadExecutor != null) {
+            this.loadExecutor.shutdownNow();
+            this.loadExecutor = null;
+        }
+        if (this.asyncVerifier != null) {
+            this.asyncVerifier.shutdown();
+            this.asyncVerifier = null;
+        }
+        AuditChannel auditChannel = this.auditChannel;
+        if (auditChannel != null) {
+            this.auditChannel = null;
+            auditChannel.close();
+        }
+        unregisterStats();
     }
 
     //----------------------------------------------< HttpsigConfiguration >---
     @Override
     public Challenge getChallenge() {
-        return this.challenge;
+        return this.state.defaultChallenge.challenge;
+    }
+
+    @Override
+    public Challenge getChallenge(@Nullable String keyId) {
+        return getNegotiatedChallenge(keyId).challenge;
+    }
+
+    @Override
+    public String getChallengeHeader(@Nullable String keyId) {
+        return getNegotiatedChallenge(keyId).headerValue;
     }
 
     @Override
     public Verifier getVerifier() {
-        return new VerifierGuard();
+        return this.verifierGuard;
+    }
+
+    @Override
+    public AsyncVerifier getAsyncVerifier() {
+        return this.asyncVerifierGuard;
+    }
+
+    //----------------------------------------------------------< Observer >---
+    @Override
+    public void contentChanged(@Nonnull NodeState root, @Nullable CommitInfo info) {
+        RepositoryKeyProvider keyProvider = this.keyProvider;
+        if (keyProvider != null) {
+            keyProvider.contentChanged(root, info);
+        }
+        PrincipalCache principalCache = this.principalCache;
+        if (principalCache != null) {
+            principalCache.contentChanged(root, info);
+        }
     }
 
     //----------------------------------------------< SecurityConfiguration >---
@@ -106,54 +433,511 @@ public final class HttpsigConfigurationImpl extends ConfigurationBase implements
         return NAME;
     }
 
+    //----------------------------------------------< internal >---
+    /**
+     * @return the provider of repository keys, or null if loading keys from the repository is disabled
+     */
+    @CheckForNull
+    RepositoryKeyProvider getRepositoryKeyProvider() {
+        return this.keyProvider;
+    }
+
+    /**
+     * Runs the checks of the current verifier which do not need the key, so that a request can be rejected before
+     * keys are loaded for it.
+     * @return the result to reject the request with, or null if it passes the checks
+     * @see StreamingVerifier#checkRequest(Challenge, RequestContent, Authorization)
+     */
+    @CheckForNull
+    VerifyResult checkRequest(@Nullable Challenge challenge, RequestContent requestContent,
+                              Authorization authorization) {
+        return this.state.verifier.checkRequest(challenge, requestContent, authorization);
+    }
+
+    /**
+     * @return the cache of principals resolved after successful logins, or null if disabled
+     */
+    @CheckForNull
+    PrincipalCache getPrincipalCache() {
+        return this.principalCache;
+    }
+
+    /**
+     * @return the channel to which login attempts are audited, or null if auditing is disabled
+     */
+    @CheckForNull
+    AuditChannel getAuditChannel() {
+        return this.auditChannel;
+    }
+
+    /**
+     * @return the verification statistics of this configuration
+     */
+    @Nonnull
+    HttpsigStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * @return a shared authentication backed by {@link #getVerifier()}
+     */
+    @Nonnull
+    HttpsigAuthentication getAuthentication() {
+        return this.authentication;
+    }
+
+    //----------------------------------------------< ReplayStore >---
+    protected void bindReplayStore(ReplayStore replayStore) {
+        this.boundReplayStore = replayStore;
+        swapReplayCache(replayStore);
+    }
+
+    protected void unbindReplayStore(ReplayStore replayStore) {
+        if (this.boundReplayStore == replayStore) {
+            this.boundReplayStore = null;
+            swapReplayCache(null);
+        }
+    }
+
+    /**
+     * Rebuilds the verifier around a replay cache for a newly bound or unbound store, if replay protection is
+     * enabled and the configuration is active.
+     */
+    private void swapReplayCache(ReplayStore replayStore) {
+        synchronized (this.keysFiles) {
+            VerifierState current = this.state;
+            if (this.replayCache != null && current != null) {
+                this.replayCache = newReplayCache(replayStore);
+                publishState(current.indexedKeychain);
+            }
+        }
+    }
+
+    /**
+     * @return true if replay protection is enabled with a skew which bounds how long signatures must be remembered
+     */
+    private boolean isReplayProtected() {
+        if (!getParameters().getConfigValue(PARAM_REPLAY_PROTECTION, false)) {
+            return false;
+        }
+        if (this.skew < 0L) {
+            LOGGER.warn("Disabling {} because a negative {} does not bound how long signatures must be remembered",
+                    PARAM_REPLAY_PROTECTION, PARAM_SKEW);
+            return false;
+        }
+        return true;
+    }
+
+    private ReplayCache newReplayCache(ReplayStore replayStore) {
+        ReplayStore store = replayStore != null ? replayStore : new InMemoryReplayStore(2L * this.skew);
+        return new ReplayCache(store, this.skew, this.stats);
+    }
+
+    /**
+     * Creates the verification cache if it is enabled, with its ttl limited to half the skew so that a remembered
+     * outcome never outlives the window in which its request could still be accepted.
+     */
+    private VerificationCache newVerificationCache() {
+        int size = getParameters().getConfigValue(PARAM_VERIFY_CACHE_SIZE, 0);
+        if (size <= 0) {
+            return null;
+        }
+        long ttl = getParameters().getConfigValue(PARAM_VERIFY_CACHE_TTL, DEFAULT_VERIFY_CACHE_TTL);
+        if (this.skew >= 0L && ttl > this.skew / 2L) {
+            LOGGER.warn("Limiting {} of {} ms to half the skew of {} ms",
+                    new Object[]{PARAM_VERIFY_CACHE_TTL, ttl, this.skew});
+            ttl = this.skew / 2L;
+        }
+        return new VerificationCache(size, ttl, this.stats);
+    }
+
     //----------------------------------------------< private >---
     private KeyId getKeyId() {
         return KEY_ID;
     }
 
-    private Keychain loadKeychain() {
-        DefaultKeychain keychain = new DefaultKeychain();
-        for (String param : getParameters().keySet()) {
-            if (param.startsWith(PARAM_PREFIX_SSHKEYS)) {
-                String userId = param.substring(PARAM_PREFIX_SSHKEYS.length());
-                String path = getParameters().getConfigValue(param, "");
-                try {
-                    Keychain authorizedKeys = AuthorizedKeys.newKeychain(new File(path));
-                    if (authorizedKeys != null) {
-                        for (Key key : authorizedKeys) {
-                            if (key instanceof FingerprintableKey) {
-                                keychain.add(new JCRKey(userId, (FingerprintableKey) key));
-                            }
-                        }
+    private NegotiatedChallenge getNegotiatedChallenge(String keyId) {
+        VerifierState state = this.state;
+        return this.keyChallenges && keyId != null ? state.getKeyChallenge(keyId) : state.defaultChallenge;
+    }
+
+    /**
+     * Refreshes the configured authorized_keys files and, if any of them changed, publishes a new keychain, challenge
+     * and verifier together. Only the keys of users whose files changed are replaced in the current keychain, unless
+     * {@code force} is set. Callers must hold the {@link #keysFiles} lock.
+     * @param force true to rebuild the keychain from all files and publish a new state even if no file has changed
+     */
+    private void reloadKeychain(boolean force) {
+        List<AuthorizedKeysFile> changedFiles = refreshKeysFiles(this.keysFiles.values());
+        if (!changedFiles.isEmpty()) {
+            writeSnapshot();
+        }
+
+        VerifierState current = this.state;
+        IndexedKeychain indexedKeychain;
+        if (force || current == null) {
+            List<JCRKey> keys = new ArrayList<JCRKey>();
+            for (AuthorizedKeysFile keysFile : this.keysFiles.values()) {
+                keys.addAll(keysFile.getKeys());
+            }
+            indexedKeychain = new IndexedKeychain(getKeyId(), keys);
+        } else if (!changedFiles.isEmpty()) {
+            Map<String, Collection<JCRKey>> userKeys = new LinkedHashMap<String, Collection<JCRKey>>();
+            for (AuthorizedKeysFile keysFile : changedFiles) {
+                userKeys.put(keysFile.getUserId(), keysFile.getKeys());
+            }
+            indexedKeychain = current.indexedKeychain.withUserKeys(userKeys);
+        } else {
+            return;
+        }
+        publishState(indexedKeychain);
+        this.stats.recordKeychainReload(indexedKeychain.size());
+    }
+
+    /**
+     * Publishes a new state built around the indexed keychain and the current settings. Callers must hold the
+     * {@link #keysFiles} lock.
+     */
+    private void publishState(IndexedKeychain indexedKeychain) {
+        Keychain keychain = this.keyProvider != null
+                ? new RepositoryKeychain(indexedKeychain, this.keyProvider)
+                : indexedKeychain;
+        this.state = new VerifierState(indexedKeychain, keychain, this.realm, this.skew, this.failureLimiter,
+                this.replayCache, this.verificationCache);
+    }
+
+    private void writeSnapshot() {
+        if (this.snapshotFile != null) {
+            try {
+                KeychainSnapshot.write(this.snapshotFile, this.snapshotSecret, this.keysFiles.values());
+            } catch (IOException e) {
+                LOGGER.warn("Failed to write keychain snapshot " + this.snapshotFile, e);
+            }
+        }
+    }
+
+    /**
+     * Refreshes authorized_keys files, checking their last modified times and lengths serially and reloading only
+     * the modified ones on the {@link #loadExecutor}, waiting at most {@link #loadTimeout} for them. A file which
+     * fails or times out keeps its previously loaded keys without holding up the others. A load which is still
+     * running is not started again, and publishes its keys itself once it completes, unless a later refresh collects
+     * it first. Callers must hold the {@link #keysFiles} lock.
+     * @return the files which were reloaded
+     */
+    private List<AuthorizedKeysFile> refreshKeysFiles(Collection<AuthorizedKeysFile> keysFiles) {
+        List<AuthorizedKeysFile> changed = new ArrayList<AuthorizedKeysFile>();
+        Map<AuthorizedKeysFile, KeysFileLoad> started = new LinkedHashMap<AuthorizedKeysFile, KeysFileLoad>();
+        long start = System.nanoTime();
+        for (AuthorizedKeysFile keysFile : keysFiles) {
+            KeysFileLoad pending = this.pendingLoads.get(keysFile);
+            if (pending != null) {
+                if (!pending.isDone()) {
+                    LOGGER.warn("Still loading authorized_keys file {} for user {}",
+                            keysFile.getFile(), keysFile.getUserId());
+                    continue;
+                }
+                this.pendingLoads.remove(keysFile);
+                if (isLoaded(keysFile, pending)) {
+                    changed.add(keysFile);
+                }
+            }
+            if (!keysFile.isModified()) {
+                continue;
+            }
+            ExecutorService executor = this.loadExecutor;
+            if (executor == null) {
+                if (refreshKeysFile(keysFile) && !changed.contains(keysFile)) {
+                    changed.add(keysFile);
+                }
+                continue;
+            }
+            KeysFileLoad load = new KeysFileLoad(keysFile);
+            executor.execute(load);
+            started.put(keysFile, load);
+        }
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.loadTimeout);
+        for (Map.Entry<AuthorizedKeysFile, KeysFileLoad> entry : started.entrySet()) {
+            AuthorizedKeysFile keysFile = entry.getKey();
+            KeysFileLoad result = entry.getValue();
+            try {
+                result.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (isLate(result)) {
+                    LOGGER.warn("Timed out loading authorized_keys file {} for user {}",
+                            keysFile.getFile(), keysFile.getUserId());
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (isLate(result)) {
+                    continue;
+                }
+            } catch (ExecutionException e) {
+                // reported by isLoaded
+            }
+            if (isLoaded(keysFile, result) && !changed.contains(keysFile)) {
+                changed.add(keysFile);
+            }
+        }
+        LOGGER.debug("Refreshed {} of {} authorized_keys files in {} ms", new Object[]{started.size(),
+                keysFiles.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+        return changed;
+    }
+
+    /**
+     * Leaves a load which is still running to publish its keys once it completes. Marking the load before checking
+     * it means that a load which completes meanwhile is either collected by the caller or publishes itself.
+     * @return true if the load is still running
+     */
+    private boolean isLate(KeysFileLoad load) {
+        load.late = true;
+        if (load.isDone()) {
+            return false;
+        }
+        this.pendingLoads.put(load.keysFile, load);
+        return true;
+    }
+
+    /**
+     * Cancels the pending load of a file which has been replaced or removed from the configuration.
+     */
+    private void cancelLoad(@Nullable AuthorizedKeysFile keysFile) {
+        if (keysFile != null) {
+            KeysFileLoad pending = this.pendingLoads.remove(keysFile);
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Publishes the keys of a late load once it completes, unless a refresh has collected it already or its file is
+     * no longer configured.
+     */
+    private void publishLateLoad(KeysFileLoad load) {
+        synchronized (this.keysFiles) {
+            AuthorizedKeysFile keysFile = load.keysFile;
+            VerifierState current = this.state;
+            if (this.pendingLoads.get(keysFile) != load || current == null) {
+                return;
+            }
+            this.pendingLoads.remove(keysFile);
+            if (isLoaded(keysFile, load)) {
+                writeSnapshot();
+                Map<String, Collection<JCRKey>> userKeys =
+                        Collections.<String, Collection<JCRKey>>singletonMap(keysFile.getUserId(), keysFile.getKeys());
+                IndexedKeychain indexedKeychain = current.indexedKeychain.withUserKeys(userKeys);
+                publishState(indexedKeychain);
+                this.stats.recordKeychainReload(indexedKeychain.size());
+            }
+        }
+    }
+
+    /**
+     * @return true if the completed load reloaded the file
+     */
+    private static boolean isLoaded(AuthorizedKeysFile keysFile, Future<Boolean> result) {
+        try {
+            return !result.isCancelled() && result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.error(String.format("Failed to load authorized_keys file %s for user %s",
+                    keysFile.getFile(), keysFile.getUserId()), e.getCause());
+        }
+        return false;
+    }
+
+    private static boolean refreshKeysFile(AuthorizedKeysFile keysFile) {
+        long start = System.nanoTime();
+        if (keysFile.refresh()) {
+            LOGGER.info("Loaded {} keys for user {} in {} ms", new Object[]{keysFile.getKeys().size(),
+                    keysFile.getUserId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the parameters of the user configuration, which hold the configured users and groups paths
+     */
+    @Nonnull
+    private ConfigurationParameters getUserParameters() {
+        SecurityProvider securityProvider = getSecurityProvider();
+        ConfigurationParameters parameters = securityProvider != null
+                ? securityProvider.getParameters(UserConfiguration.NAME)
+                : null;
+        return parameters != null ? parameters : ConfigurationParameters.EMPTY;
+    }
+
+    private static boolean sameValue(Object previous, Object next) {
+        return Arrays.deepEquals(new Object[]{previous}, new Object[]{next});
+    }
+
+    /**
+     * Registers the stats under {@link HttpsigStatsMXBean#OBJECT_NAME}, or under that name with an added
+     * {@code instance} key when another configuration in the same JVM, such as another node of a load test, already
+     * holds it.
+     */
+    private void registerStats() {
+        try {
+            ObjectName name = new ObjectName(HttpsigStatsMXBean.OBJECT_NAME);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this.stats, name);
+            } catch (InstanceAlreadyExistsException e) {
+                name = new ObjectName(HttpsigStatsMXBean.OBJECT_NAME + ",instance="
+                        + STATS_INSTANCES.incrementAndGet());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this.stats, name);
+                LOGGER.info("{} is already registered, registered {} instead", HttpsigStatsMXBean.OBJECT_NAME, name);
+            }
+            this.statsName = name;
+        } catch (JMException e) {
+            LOGGER.warn("Failed to register " + HttpsigStatsMXBean.OBJECT_NAME, e);
+        }
+    }
+
+    private void unregisterStats() {
+        if (this.statsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.statsName);
+            } catch (JMException e) {
+                LOGGER.warn("Failed to unregister " + this.statsName, e);
+            }
+            this.statsName = null;
+        }
+    }
+
+    /**
+     * Load of an authorized_keys file on the {@link #loadExecutor}. Once {@link #refreshKeysFiles} stops waiting for
+     * it, the load is marked late and publishes its keys itself when it completes.
+     */
+    private final class KeysFileLoad extends FutureTask<Boolean> {
+        private final AuthorizedKeysFile keysFile;
+        private volatile boolean late;
+
+        private KeysFileLoad(final AuthorizedKeysFile keysFile) {
+            super(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return refreshKeysFile(keysFile);
+                }
+            });
+            this.keysFile = keysFile;
+        }
+
+        @Override
+        protected void done() {
+            ExecutorService executor = loadExecutor;
+            if (!late || isCancelled() || executor == null) {
+                return;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        publishLateLoad(KeysFileLoad.this);
                     }
-                } catch (IOException e) {
-                    LOGGER.error(String.format("Failed to load authorized_keys file %s for user %s", path, userId), e);
+                });
+            } catch (RejectedExecutionException e) {
+                // deactivated meanwhile
+            }
+        }
+    }
+
+    /**
+     * Immutable holder for the keychain and the challenge and verifier built from it, so that all three are swapped
+     * in with a single volatile write. The indexed keychain is kept as the base for incremental updates.
+     * <p>
+     * Per-key challenges depend only on the algorithms of the key, and keys of the same type share one algorithm
+     * set, so they are cached by algorithm set rather than by keyId. The cache stays as small as the number of key
+     * types in use, and is discarded with the state when the keychain changes.
+     */
+    private static final class VerifierState {
+        private final IndexedKeychain indexedKeychain;
+        private final Keychain keychain;
+        private final String realm;
+        private final NegotiatedChallenge defaultChallenge;
+        private final ConcurrentMap<Set<Algorithm>, NegotiatedChallenge> keyChallenges =
+                new ConcurrentHashMap<Set<Algorithm>, NegotiatedChallenge>();
+        private final StreamingVerifier verifier;
+
+        private VerifierState(IndexedKeychain indexedKeychain, Keychain keychain, String realm, long skew,
+                              FailureRateLimiter failureLimiter, ReplayCache replayCache,
+                              VerificationCache verificationCache) {
+            this.indexedKeychain = indexedKeychain;
+            this.keychain = keychain;
+            this.realm = realm;
+            this.defaultChallenge = new NegotiatedChallenge(
+                    new Challenge(realm, Constants.DEFAULT_HEADERS, keychain.getAlgorithms()));
+            this.verifier = new StreamingVerifier(keychain, KEY_ID, skew, failureLimiter, replayCache,
+                    verificationCache);
+        }
+
+        private NegotiatedChallenge getKeyChallenge(String keyId) {
+            Key key = keychain.toMap(KEY_ID).get(keyId);
+            if (key == null || key.getAlgorithms().isEmpty()) {
+                return defaultChallenge;
+            }
+            NegotiatedChallenge negotiated = keyChallenges.get(key.getAlgorithms());
+            if (negotiated == null) {
+                negotiated = new NegotiatedChallenge(
+                        new Challenge(realm, Constants.DEFAULT_HEADERS, key.getAlgorithms()));
+                NegotiatedChallenge existing = keyChallenges.putIfAbsent(key.getAlgorithms(), negotiated);
+                if (existing != null) {
+                    negotiated = existing;
                 }
             }
+            return negotiated;
         }
+    }
+
+    /**
+     * A challenge together with its serialized WWW-Authenticate header value.
+     */
+    private static final class NegotiatedChallenge {
+        private final Challenge challenge;
+        private final String headerValue;
 
-        return keychain;
+        private NegotiatedChallenge(Challenge challenge) {
+            this.challenge = challenge;
+            this.headerValue = challenge.getHeaderValue();
+        }
     }
 
     private class VerifierGuard implements Verifier {
         @Override
         public long getSkew() {
-            return HttpsigConfigurationImpl.this.verifier.getSkew();
+            return HttpsigConfigurationImpl.this.state.verifier.getSkew();
         }
 
         @Override
         public Key selectKey(Authorization authorization) {
-            return HttpsigConfigurationImpl.this.verifier.selectKey(authorization);
+            return HttpsigConfigurationImpl.this.state.verifier.selectKey(authorization);
         }
 
         @Override
         public boolean verify(Challenge challenge, RequestContent requestContent, Authorization authorization) {
-            return HttpsigConfigurationImpl.this.verifier.verify(challenge, requestContent, authorization);
+            return HttpsigConfigurationImpl.this.state.verifier.verify(challenge, requestContent, authorization);
         }
 
         @Override
         public VerifyResult verifyWithResult(Challenge challenge, RequestContent requestContent, Authorization authorization) {
-            return HttpsigConfigurationImpl.this.verifier.verifyWithResult(challenge, requestContent, authorization);
+            return HttpsigConfigurationImpl.this.state.verifier.verifyWithResult(challenge, requestContent, authorization);
+        }
+    }
+
+    /**
+     * Submits to the executor of the active configuration, and rejects submissions while it is not active.
+     */
+    private class AsyncVerifierGuard extends VerifierGuard implements AsyncVerifier {
+        @Override
+        public Future<VerifyResult> verifyAsync(HttpsigCredentials credentials, VerifyCallback callback) {
+            ExecutorVerifier asyncVerifier = HttpsigConfigurationImpl.this.asyncVerifier;
+            if (asyncVerifier == null) {
+                throw new RejectedExecutionException("The configuration is not active");
+            }
+            return asyncVerifier.verifyAsync(credentials, callback);
         }
     }
 }
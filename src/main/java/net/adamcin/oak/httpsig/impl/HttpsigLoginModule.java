@@ -27,15 +27,22 @@
 
 package net.adamcin.oak.httpsig.impl;
 
-import net.adamcin.httpsig.api.DefaultVerifier;
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.UserKey;
 import net.adamcin.httpsig.api.Verifier;
+import net.adamcin.httpsig.api.VerifyResult;
+import net.adamcin.httpsig.ssh.jce.FingerprintableKey;
 import net.adamcin.oak.httpsig.HttpsigConfiguration;
 import net.adamcin.oak.httpsig.HttpsigCredentials;
 import net.adamcin.oak.httpsig.VerifierCallback;
 import org.apache.jackrabbit.oak.api.AuthInfo;
+import org.apache.jackrabbit.oak.api.Root;
 import org.apache.jackrabbit.oak.spi.security.SecurityProvider;
 import org.apache.jackrabbit.oak.spi.security.authentication.AbstractLoginModule;
 import org.apache.jackrabbit.oak.spi.security.authentication.AuthInfoImpl;
+import org.apache.jackrabbit.oak.spi.security.authentication.token.TokenConfiguration;
+import org.apache.jackrabbit.oak.spi.security.authentication.token.TokenInfo;
+import org.apache.jackrabbit.oak.spi.security.authentication.token.TokenProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +56,8 @@ import javax.security.auth.login.LoginException;
 import java.io.IOException;
 import java.security.Principal;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -61,7 +70,8 @@ public final class HttpsigLoginModule extends AbstractLoginModule {
             Collections.<Class>singleton(HttpsigCredentials.class);
 
     private HttpsigCredentials httpsigCredentials;
-    private Verifier verifier;
+    private VerifyResult verifyResult;
+    private String fingerprint;
     private String userId;
     private Set<? extends Principal> principals;
 
@@ -73,37 +83,31 @@ public final class HttpsigLoginModule extends AbstractLoginModule {
      */
     @Override
     public boolean login() throws LoginException {
-        verifier = getVerifier();
-        if (verifier == null) {
+        long start = System.nanoTime();
+        Credentials credentials = getCredentials();
+        if (!(credentials instanceof HttpsigCredentials)) {
             return false;
         }
 
-        Credentials credentials = getCredentials();
-
-        if (credentials instanceof HttpsigCredentials) {
-            HttpsigCredentials creds = (HttpsigCredentials) credentials;
-            HttpsigAuthentication authentication = new HttpsigAuthentication(getVerifier());
-
-            if (authentication.authenticate(creds)) {
-                this.httpsigCredentials = creds;
-                this.userId = authentication.getUserId();
-                this.principals = this.getPrincipals(this.userId);
-                return true;
-            } else {
-            }
+        HttpsigCredentials creds = (HttpsigCredentials) credentials;
+        Object event = LoginEvents.begin(LoginEvents.Phase.LOGIN);
+        try {
+            return login(creds, start);
+        } finally {
+            LoginEvents.commit(event, this.userId, creds, this.verifyResult);
         }
-
-        return false;
     }
 
     /**
-     * TODO handle {@link #SHARED_KEY_CREDENTIALS}
      * {@inheritDoc}
      */
     @Override
     public boolean commit() throws LoginException {
         if (httpsigCredentials != null) {
+            Object event = LoginEvents.begin(LoginEvents.Phase.COMMIT);
+            issueToken(httpsigCredentials);
             updateSubject(httpsigCredentials, getAuthInfo(), principals);
+            LoginEvents.commit(event, userId, httpsigCredentials, "COMMITTED");
             return true;
         }
 
@@ -123,12 +127,76 @@ public final class HttpsigLoginModule extends AbstractLoginModule {
         super.clearState();
 
         this.httpsigCredentials = null;
+        this.verifyResult = null;
+        this.fingerprint = null;
         this.userId = null;
         this.principals = null;
     }
 
     //------------------------------------------------------------< private >---
 
+    /**
+     * Verifies the credentials, recording each phase in {@link LoginEvents}. If the credentials were already verified
+     * by the {@link net.adamcin.oak.httpsig.AsyncVerifier}, its outcome is taken instead of verifying again.
+     *
+     * @param creds the signature credentials
+     * @param start the {@link System#nanoTime()} at which the login started
+     * @return true if the signature was verified
+     */
+    private boolean login(@Nonnull HttpsigCredentials creds, long start) {
+        HttpsigConfiguration config = getConfiguration();
+        Object event = LoginEvents.begin(LoginEvents.Phase.GET_VERIFIER);
+        HttpsigAuthentication authentication = getAuthentication(config);
+        LoginEvents.commit(event, null, creds, authentication != null ? "FOUND" : "NOT_FOUND");
+        if (authentication == null) {
+            return false;
+        }
+
+        UserKey key;
+        HttpsigAuthentication.Verification verification = authentication.takeVerification(creds);
+        if (verification != null) {
+            key = verification.getKey();
+            this.verifyResult = verification.getResult();
+        } else {
+            event = LoginEvents.begin(LoginEvents.Phase.SELECT_KEY);
+            key = authentication.selectUserKey(creds);
+            if (key == null && loadRepositoryKeys(config, creds)) {
+                key = authentication.selectUserKey(creds);
+            }
+            LoginEvents.commit(event, key != null ? key.getUserId() : null, creds,
+                    key != null ? "FOUND" : "NOT_FOUND");
+            this.verifyResult = authentication.verify(creds, key);
+        }
+        audit(config, creds, key, this.verifyResult, start);
+
+        if (this.verifyResult == VerifyResult.SUCCESS) {
+            this.httpsigCredentials = creds;
+            this.userId = key.getUserId();
+            this.fingerprint = key instanceof FingerprintableKey ? ((FingerprintableKey) key).getFingerprint() : null;
+            this.principals = getCachedPrincipals(config, this.userId);
+            publishSharedState();
+            return true;
+        } else if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Signature login failed with {} for keyId {}", this.verifyResult,
+                    creds.getAuthorization() != null ? creds.getAuthorization().getKeyId() : null);
+        }
+
+        return false;
+    }
+
+    /**
+     * Publishes the verified credentials, userId and principals to the shared state, so that other modules in the
+     * login chain can see that the user has already been authenticated and reuse the resolved principals.
+     */
+    @SuppressWarnings("unchecked")
+    private void publishSharedState() {
+        if (sharedState != null) {
+            sharedState.put(SHARED_KEY_CREDENTIALS, this.httpsigCredentials);
+            sharedState.put(SHARED_KEY_LOGIN_NAME, this.userId);
+            sharedState.put(HttpsigConfiguration.SHARED_KEY_PRINCIPALS, this.principals);
+        }
+    }
+
     /**
      * Create the {@code AuthInfo} for the specified {@code tokenInfo} as well as
      * userId and principals, that have been set upon {@link #login}.
@@ -144,6 +212,42 @@ public final class HttpsigLoginModule extends AbstractLoginModule {
         }
     }
 
+    /**
+     * If enabled by {@link HttpsigConfiguration#PARAM_ISSUE_TOKEN} and requested by an empty
+     * {@link HttpsigConfiguration#TOKEN_ATTRIBUTE} attribute of the credentials, creates a login token bound to the
+     * fingerprint of the verified key and returns it to the caller in that attribute. Failure to create a token does
+     * not fail the login.
+     */
+    private void issueToken(@Nonnull HttpsigCredentials credentials) {
+        if (!"".equals(credentials.getAttribute(HttpsigConfiguration.TOKEN_ATTRIBUTE))) {
+            return;
+        }
+        SecurityProvider securityProvider = getSecurityProvider();
+        HttpsigConfiguration config = getConfiguration();
+        if (securityProvider == null || config == null || fingerprint == null
+                || !config.getParameters().getConfigValue(HttpsigConfiguration.PARAM_ISSUE_TOKEN, false)) {
+            return;
+        }
+
+        Root root = getRoot();
+        if (root == null) {
+            return;
+        }
+        long expiration = config.getParameters().getConfigValue(HttpsigConfiguration.PARAM_TOKEN_EXPIRATION,
+                HttpsigConfiguration.DEFAULT_TOKEN_EXPIRATION);
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(HttpsigConfiguration.TOKEN_ATTRIBUTE_FINGERPRINT, fingerprint);
+        attributes.put(TokenProvider.PARAM_TOKEN_EXPIRATION, String.valueOf(expiration));
+
+        TokenProvider tokenProvider = securityProvider.getConfiguration(TokenConfiguration.class).getTokenProvider(root);
+        TokenInfo tokenInfo = tokenProvider.createToken(userId, attributes);
+        if (tokenInfo != null) {
+            credentials.setAttribute(HttpsigConfiguration.TOKEN_ATTRIBUTE, tokenInfo.getToken());
+        } else {
+            LOGGER.warn("Failed to create login token for user {}", userId);
+        }
+    }
+
     private void updateSubject(@Nonnull HttpsigCredentials tc, @Nullable AuthInfo authInfo,
                                @Nullable Set<? extends Principal> principals) {
         if (!subject.isReadOnly()) {
@@ -160,11 +264,98 @@ public final class HttpsigLoginModule extends AbstractLoginModule {
     }
 
     @CheckForNull
-    private Verifier getVerifier() {
-        Verifier v = null;
+    private HttpsigConfiguration getConfiguration() {
         SecurityProvider securityProvider = getSecurityProvider();
         if (securityProvider != null) {
-            HttpsigConfiguration config = securityProvider.getConfiguration(HttpsigConfiguration.class);
+            return securityProvider.getConfiguration(HttpsigConfiguration.class);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the shared authentication of the {@link HttpsigConfigurationImpl} when available, so that the common
+     * case allocates nothing. Otherwise, wraps the verifier provided by the configuration or the callback handler.
+     */
+    @CheckForNull
+    private HttpsigAuthentication getAuthentication(@Nullable HttpsigConfiguration config) {
+        if (config instanceof HttpsigConfigurationImpl) {
+            return ((HttpsigConfigurationImpl) config).getAuthentication();
+        }
+        Verifier verifier = getVerifier(config);
+        return verifier != null ? new HttpsigAuthentication(verifier) : null;
+    }
+
+    /**
+     * Returns the principals of the user from the configuration's {@link PrincipalCache}, resolving and caching them
+     * on a miss. Without a cache, resolves them from the repository every time.
+     */
+    @Nonnull
+    private Set<? extends Principal> getCachedPrincipals(@Nullable HttpsigConfiguration config,
+                                                         @Nonnull String userId) {
+        PrincipalCache principalCache = config instanceof HttpsigConfigurationImpl
+                ? ((HttpsigConfigurationImpl) config).getPrincipalCache()
+                : null;
+        Object event = LoginEvents.begin(LoginEvents.Phase.GET_PRINCIPALS);
+        if (principalCache == null) {
+            Set<? extends Principal> resolved = getPrincipals(userId);
+            LoginEvents.commit(event, userId, null, null, "RESOLVED");
+            return resolved;
+        }
+
+        Set<? extends Principal> cached = principalCache.getPrincipals(userId);
+        if (cached != null) {
+            LoginEvents.commit(event, userId, null, null, "CACHED");
+            return cached;
+        }
+        long generation = principalCache.getGeneration();
+        Set<? extends Principal> resolved = principalCache.putPrincipals(userId, getPrincipals(userId), generation);
+        LoginEvents.commit(event, userId, null, null, "RESOLVED");
+        return resolved;
+    }
+
+    /**
+     * Loads the keys of the user identified by the keyId from the repository if they are not already cached, so that
+     * the verifier can select them. Requests which would be rejected without the key, for example for an expired
+     * date or a rate-limited keyId, never reach the repository.
+     *
+     * @return true if keys were loaded
+     */
+    private boolean loadRepositoryKeys(@Nullable HttpsigConfiguration config, @Nonnull HttpsigCredentials credentials) {
+        Authorization authorization = credentials.getAuthorization();
+        if (config instanceof HttpsigConfigurationImpl && authorization != null) {
+            HttpsigConfigurationImpl configImpl = (HttpsigConfigurationImpl) config;
+            RepositoryKeyProvider keyProvider = configImpl.getRepositoryKeyProvider();
+            String keyId = authorization.getKeyId();
+            if (keyProvider != null && !keyProvider.isCached(keyId) && configImpl.checkRequest(
+                    credentials.getChallenge(), credentials.getRequestContent(), authorization) == null) {
+                keyProvider.loadKeys(keyId, getUserManager());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Publishes the outcome of a login attempt to the configuration's {@link AuditChannel}, if auditing is enabled.
+     */
+    private static void audit(@Nullable HttpsigConfiguration config, @Nonnull HttpsigCredentials credentials,
+                              @Nullable UserKey key, @Nonnull VerifyResult result, long start) {
+        AuditChannel auditChannel = config instanceof HttpsigConfigurationImpl
+                ? ((HttpsigConfigurationImpl) config).getAuditChannel()
+                : null;
+        if (auditChannel != null) {
+            auditChannel.publish(new AuditEvent(System.currentTimeMillis(),
+                    credentials.getAuthorization() != null ? credentials.getAuthorization().getKeyId() : null,
+                    key instanceof FingerprintableKey ? ((FingerprintableKey) key).getFingerprint() : null,
+                    key != null ? key.getUserId() : null,
+                    result, System.nanoTime() - start));
+        }
+    }
+
+    @CheckForNull
+    private Verifier getVerifier(@Nullable HttpsigConfiguration config) {
+        Verifier v = null;
+        if (config != null) {
             v = config.getVerifier();
         }
         if (v == null && callbackHandler != null) {
@@ -0,0 +1,205 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.VerifyResult;
+import net.adamcin.oak.httpsig.HttpsigStatsMXBean;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free implementation of {@link HttpsigStatsMXBean}, updated by {@link HttpsigAuthentication} on every
+ * verification and by {@link HttpsigConfigurationImpl} on every keychain reload.
+ */
+public final class HttpsigStats implements HttpsigStatsMXBean {
+
+    private static final VerifyResult[] RESULTS = VerifyResult.values();
+    private static final Algorithm[] ALGORITHMS = Algorithm.values();
+
+    private final AtomicLongArray resultCounts = new AtomicLongArray(RESULTS.length);
+    private final AtomicLongArray algorithmCounts = new AtomicLongArray(ALGORITHMS.length);
+    private final LatencyHistogram keySelection = new LatencyHistogram();
+    private final LatencyHistogram verify = new LatencyHistogram();
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+    private final AtomicLong replayRejectedCount = new AtomicLong();
+    private final AtomicLong auditDroppedCount = new AtomicLong();
+    private final AtomicLong verifyCacheHitCount = new AtomicLong();
+    private final AtomicLong keychainReloadCount = new AtomicLong();
+    private volatile int keychainSize;
+
+    public void recordKeySelection(long nanos) {
+        keySelection.record(nanos);
+    }
+
+    public void recordVerify(long nanos) {
+        verify.record(nanos);
+    }
+
+    /**
+     * @param result the verification result
+     * @param algorithm the algorithm of the Authorization, if any
+     */
+    public void recordResult(VerifyResult result, Algorithm algorithm) {
+        resultCounts.incrementAndGet(result.ordinal());
+        if (algorithm != null) {
+            algorithmCounts.incrementAndGet(algorithm.ordinal());
+        }
+    }
+
+    public void recordRateLimited() {
+        rateLimitedCount.incrementAndGet();
+    }
+
+    public void recordReplayRejected() {
+        replayRejectedCount.incrementAndGet();
+    }
+
+    public void recordVerifyCacheHit() {
+        verifyCacheHitCount.incrementAndGet();
+    }
+
+    public void recordAuditDropped() {
+        auditDroppedCount.incrementAndGet();
+    }
+
+    public void recordKeychainReload(int keychainSize) {
+        this.keychainSize = keychainSize;
+        keychainReloadCount.incrementAndGet();
+    }
+
+    @Override
+    public Map<String, Long> getVerifyResultCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (VerifyResult result : RESULTS) {
+            counts.put(result.name(), resultCounts.get(result.ordinal()));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getAlgorithmCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (Algorithm algorithm : ALGORITHMS) {
+            long count = algorithmCounts.get(algorithm.ordinal());
+            if (count > 0L) {
+                counts.put(algorithm.getName(), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long getKeySelectionCount() {
+        return keySelection.getCount();
+    }
+
+    @Override
+    public double getKeySelectionMeanMicros() {
+        return keySelection.getMeanMicros();
+    }
+
+    @Override
+    public long getKeySelection99thPercentileMicros() {
+        return keySelection.getPercentileMicros(99.0);
+    }
+
+    @Override
+    public Map<String, Long> getKeySelectionHistogram() {
+        return keySelection.toMap();
+    }
+
+    @Override
+    public long getVerifyCount() {
+        return verify.getCount();
+    }
+
+    @Override
+    public double getVerifyMeanMicros() {
+        return verify.getMeanMicros();
+    }
+
+    @Override
+    public long getVerify99thPercentileMicros() {
+        return verify.getPercentileMicros(99.0);
+    }
+
+    @Override
+    public Map<String, Long> getVerifyHistogram() {
+        return verify.toMap();
+    }
+
+    @Override
+    public long getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    @Override
+    public long getReplayRejectedCount() {
+        return replayRejectedCount.get();
+    }
+
+    @Override
+    public long getVerifyCacheHitCount() {
+        return verifyCacheHitCount.get();
+    }
+
+    @Override
+    public long getAuditDroppedCount() {
+        return auditDroppedCount.get();
+    }
+
+    @Override
+    public int getKeychainSize() {
+        return keychainSize;
+    }
+
+    @Override
+    public long getKeychainReloadCount() {
+        return keychainReloadCount.get();
+    }
+
+    @Override
+    public void resetStatistics() {
+        for (int i = 0; i < RESULTS.length; i++) {
+            resultCounts.set(i, 0L);
+        }
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            algorithmCounts.set(i, 0L);
+        }
+        rateLimitedCount.set(0L);
+        replayRejectedCount.set(0L);
+        auditDroppedCount.set(0L);
+        verifyCacheHitCount.set(0L);
+        keySelection.reset();
+        verify.reset();
+    }
+}
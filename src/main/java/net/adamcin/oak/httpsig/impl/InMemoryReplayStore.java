@@ -0,0 +1,168 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.oak.httpsig.ReplayStore;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, in-memory {@link ReplayStore} which groups keys into time buckets by their expiration, so that expired
+ * keys are evicted a whole bucket at a time instead of being tracked individually. The ring of buckets covers the
+ * replay window, so memory is bounded by the number of requests accepted within that window.
+ * <p>
+ * The ring is sized from the window, so a change of window {@link #resize(long, long) resizes} the store into a new
+ * one. Instead of copying, the new store keeps the old one as its predecessor until the old keys have expired, and
+ * each marks a key first and then checks the other for it, so that a key is never accepted by both of them.
+ */
+public final class InMemoryReplayStore implements ReplayStore {
+
+    private static final int BUCKETS_PER_WINDOW = 16;
+
+    private final long bucketMillis;
+    private final long windowMillis;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final long previousUntil;
+    private volatile InMemoryReplayStore previous;
+    private volatile InMemoryReplayStore next;
+
+    /**
+     * @param windowMillis the longest time ahead of now that a key may expire, i.e. twice the allowed skew
+     */
+    public InMemoryReplayStore(long windowMillis) {
+        this(windowMillis, null, 0L);
+    }
+
+    private InMemoryReplayStore(long windowMillis, InMemoryReplayStore previous, long previousUntil) {
+        this.windowMillis = Math.max(1L, windowMillis);
+        this.bucketMillis = Math.max(1L, this.windowMillis / BUCKETS_PER_WINDOW);
+        this.buckets = new AtomicReferenceArray<Bucket>((int) (this.windowMillis / this.bucketMillis) + 3);
+        this.previous = previous;
+        this.previousUntil = previousUntil;
+    }
+
+    /**
+     * Creates a store for a new window which still rejects the keys marked in this one. This store should no longer
+     * be used once the new one is in place, but keys marked in it meanwhile are still seen by the new one.
+     * @param windowMillis the new window, i.e. twice the new skew
+     * @param extendMillis how much later the keys of this store expire under the new window, i.e. the change of skew
+     * @return the new store
+     */
+    public InMemoryReplayStore resize(long windowMillis, long extendMillis) {
+        long until = System.currentTimeMillis() + this.windowMillis + this.bucketMillis + Math.max(0L, extendMillis);
+        InMemoryReplayStore resized = new InMemoryReplayStore(windowMillis, this, until);
+        this.next = resized;
+        return resized;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSeen(String key, long expiresAt) {
+        long now = System.currentTimeMillis();
+        if (expiresAt < now) {
+            return true;
+        }
+        if (!add(key, expiresAt, now)) {
+            return false;
+        }
+        if (this.previous != null && now > previousUntil) {
+            this.previous = null;
+        }
+        // a key is added before the other stores are checked, so that of two concurrent marks one sees the other
+        for (InMemoryReplayStore previous = this.previous; previous != null; previous = previous.previous) {
+            if (previous.contains(key)) {
+                return false;
+            }
+        }
+        InMemoryReplayStore next = this.next;
+        return next == null || !next.contains(key);
+    }
+
+    private boolean add(String key, long expiresAt, long now) {
+        if (expiresAt - now > windowMillis + bucketMillis) {
+            // beyond the ring, so it could not be remembered until it expires
+            return false;
+        }
+
+        long epoch = expiresAt / bucketMillis;
+        int slot = (int) (epoch % buckets.length());
+        for (;;) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket != null && bucket.epoch == epoch) {
+                return bucket.keys.add(key);
+            } else if (bucket != null && bucket.epoch > epoch) {
+                // the slot has moved on, so this key expired already
+                return true;
+            }
+            // the slot is empty or holds a bucket which expired a full ring ago
+            Bucket next = new Bucket(epoch);
+            if (buckets.compareAndSet(slot, bucket, next)) {
+                return next.keys.add(key);
+            }
+        }
+    }
+
+    /**
+     * Checks the buckets regardless of expiration, since the request of an expired key is out of the window anyway.
+     */
+    private boolean contains(String key) {
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.keys.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of keys currently remembered, including expired keys not yet evicted
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null) {
+                size += bucket.keys.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Bucket {
+        private final long epoch;
+        private final ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<String>();
+
+        private Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
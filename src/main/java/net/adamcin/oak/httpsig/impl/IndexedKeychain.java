@@ -0,0 +1,379 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.DefaultKeychain;
+import net.adamcin.httpsig.api.Key;
+import net.adamcin.httpsig.api.KeyId;
+import net.adamcin.httpsig.api.Keychain;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable {@link Keychain} of {@link JCRKey}s which indexes keys on fingerprint, keyId and userId once at
+ * construction, so that {@link #toMap(KeyId)} for the indexed {@link KeyId} does not copy the keychain for every
+ * {@link net.adamcin.httpsig.api.Verifier#selectKey(net.adamcin.httpsig.api.Authorization)} call. Changes to the keys
+ * of a few users are applied with {@link #withUserKeys(Map)}, which re-indexes the existing keys without parsing them
+ * again.
+ * <p>
+ * To stay compact for very large keychains, keys are not indexed by fingerprint and keyId strings. Instead, the raw
+ * fingerprints are packed into one byte array and hashed into an open-addressing table of key positions. A
+ * {@link JCRKeyId} is resolved by parsing the fingerprint out of it and comparing the userId in place.
+ */
+public final class IndexedKeychain implements Keychain {
+
+    private static final int DIGEST_LENGTH = 16;
+
+    private final KeyId keyId;
+    private final boolean jcrKeyIds;
+    private final List<JCRKey> keys;
+    private final Set<Algorithm> algorithms;
+    private final Map<String, List<JCRKey>> byUserId;
+    private final Map<String, Key> keyMap = new KeyIdMap();
+
+    /**
+     * The raw fingerprint of each key, {@link #DIGEST_LENGTH} bytes per key in key order.
+     */
+    private final byte[] digests;
+
+    /**
+     * Open-addressing table of key positions plus one, hashed on the raw fingerprint, with 0 marking empty slots.
+     */
+    private final int[] slots;
+
+    /**
+     * Keys which are not in the table because they have no raw fingerprint, and for a {@link KeyId} other than
+     * {@link JCRKeyId}, all keys.
+     */
+    private final Map<String, Key> byKeyId;
+    private final Map<String, JCRKey> byFingerprint;
+
+    public IndexedKeychain(KeyId keyId, Collection<JCRKey> keys) {
+        this(keyId, new ArrayList<JCRKey>(keys), groupByUserId(keys));
+    }
+
+    private IndexedKeychain(KeyId keyId, List<JCRKey> keys, Map<String, List<JCRKey>> byUserId) {
+        this.keyId = keyId;
+        this.jcrKeyIds = keyId instanceof JCRKeyId;
+        this.keys = Collections.unmodifiableList(keys);
+        this.algorithms = algorithmsOf(this.keys);
+        this.byUserId = Collections.unmodifiableMap(byUserId);
+
+        byte[] digests = new byte[keys.size() * DIGEST_LENGTH];
+        int[] slots = new int[tableSize(keys.size())];
+        Map<String, Key> byKeyId = new HashMap<String, Key>();
+        Map<String, JCRKey> byFingerprint = new HashMap<String, JCRKey>();
+        for (int i = 0; i < keys.size(); i++) {
+            JCRKey key = keys.get(i);
+            byte[] digest = key.getDigest();
+            boolean packed = digest != null && digest.length == DIGEST_LENGTH;
+            if (packed) {
+                System.arraycopy(digest, 0, digests, i * DIGEST_LENGTH, DIGEST_LENGTH);
+                int slot = hash(digest) & (slots.length - 1);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & (slots.length - 1);
+                }
+                slots[slot] = i + 1;
+            } else if (!byFingerprint.containsKey(key.getFingerprint())) {
+                byFingerprint.put(key.getFingerprint(), key);
+            }
+
+            if (!packed || !this.jcrKeyIds) {
+                String id = keyId.getId(key);
+                if (id != null && !byKeyId.containsKey(id)) {
+                    byKeyId.put(id, key);
+                }
+            }
+        }
+        this.digests = digests;
+        this.slots = slots;
+        this.byKeyId = byKeyId.isEmpty() ? Collections.<String, Key>emptyMap() : byKeyId;
+        this.byFingerprint = byFingerprint.isEmpty() ? Collections.<String, JCRKey>emptyMap() : byFingerprint;
+    }
+
+    /**
+     * Returns a copy of this keychain in which the keys of each user in {@code userKeys} replace that user's
+     * current keys, leaving the keys of all other users in place. An empty collection removes the user's keys.
+     * @param userKeys the new keys by userId
+     * @return a new keychain
+     */
+    public IndexedKeychain withUserKeys(Map<String, ? extends Collection<JCRKey>> userKeys) {
+        List<JCRKey> keys = new ArrayList<JCRKey>(this.keys.size());
+        for (JCRKey key : this.keys) {
+            if (!userKeys.containsKey(key.getUserId())) {
+                keys.add(key);
+            }
+        }
+        Map<String, List<JCRKey>> byUserId = new HashMap<String, List<JCRKey>>(this.byUserId);
+        for (Map.Entry<String, ? extends Collection<JCRKey>> entry : userKeys.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                byUserId.remove(entry.getKey());
+            } else {
+                List<JCRKey> added = new ArrayList<JCRKey>(entry.getValue());
+                keys.addAll(added);
+                byUserId.put(entry.getKey(), Collections.unmodifiableList(added));
+            }
+        }
+        return new IndexedKeychain(keyId, keys, byUserId);
+    }
+
+    /**
+     * @return the {@link KeyId} used to build the keyId index
+     */
+    public KeyId getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * @param keyId a keyId as it would appear in an Authorization header
+     * @return the matching key or null
+     */
+    public Key getKeyById(String keyId) {
+        Key key = byKeyId.get(keyId);
+        if (key != null || !jcrKeyIds) {
+            return key;
+        }
+        int offset = JCRKeyId.getFingerprintOffset(keyId);
+        byte[] digest = offset > 0 ? OpenSSHKey.parseFingerprint(keyId, offset) : null;
+        if (digest == null) {
+            return null;
+        }
+        int mask = slots.length - 1;
+        for (int slot = hash(digest) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (matches(index, digest) && JCRKeyId.matchesUserId(keyId, offset, keys.get(index).getUserId())) {
+                return keys.get(index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param fingerprint a key fingerprint
+     * @return the first key loaded with the fingerprint or null
+     */
+    public JCRKey getKeyByFingerprint(String fingerprint) {
+        byte[] digest = OpenSSHKey.parseFingerprint(fingerprint, 0);
+        if (digest != null) {
+            int mask = slots.length - 1;
+            for (int slot = hash(digest) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int index = slots[slot] - 1;
+                if (matches(index, digest)) {
+                    return keys.get(index);
+                }
+            }
+        }
+        return byFingerprint.get(fingerprint);
+    }
+
+    /**
+     * @param userId a userId
+     * @return the keys loaded for the user, or an empty list
+     */
+    public List<JCRKey> getKeysByUserId(String userId) {
+        List<JCRKey> userKeys = byUserId.get(userId);
+        return userKeys != null ? userKeys : Collections.<JCRKey>emptyList();
+    }
+
+    /**
+     * @return the number of keys in the keychain
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Algorithm> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Keychain filterAlgorithms(Collection<Algorithm> algorithms) {
+        List<JCRKey> filtered = new ArrayList<JCRKey>();
+        for (JCRKey key : keys) {
+            Set<Algorithm> keyAlgorithms = new LinkedHashSet<Algorithm>(key.getAlgorithms());
+            keyAlgorithms.retainAll(algorithms);
+            if (!keyAlgorithms.isEmpty()) {
+                filtered.add(key);
+            }
+        }
+        return new IndexedKeychain(keyId, filtered);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Keychain discard() {
+        if (keys.isEmpty()) {
+            return this;
+        }
+        return new IndexedKeychain(keyId, keys.subList(1, keys.size()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Key currentKey() {
+        return keys.isEmpty() ? null : keys.get(0);
+    }
+
+    /**
+     * Returns a view backed by the index when {@code keyId} is the {@link KeyId} this keychain was built with.
+     * Otherwise, falls back to building a new map.
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Key> toMap(KeyId keyId) {
+        if (keyId == null || keyId == this.keyId) {
+            return keyMap;
+        }
+        return new DefaultKeychain(keys).toMap(keyId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Key> iterator() {
+        return Collections.<Key>unmodifiableList(keys).iterator();
+    }
+
+    private boolean matches(int index, byte[] digest) {
+        int offset = index * DIGEST_LENGTH;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (digests[offset + i] != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * MD5 output is uniformly distributed, so its first four bytes make a good hash.
+     */
+    private static int hash(byte[] digest) {
+        return (digest[0] & 0xff) | (digest[1] & 0xff) << 8 | (digest[2] & 0xff) << 16 | digest[3] << 24;
+    }
+
+    /**
+     * @return a power of two of at least twice the key count, so that probe sequences stay short and always end
+     */
+    private static int tableSize(int size) {
+        int tableSize = 2;
+        while (tableSize < 2 * size) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    private static Map<String, List<JCRKey>> groupByUserId(Collection<JCRKey> keys) {
+        Map<String, List<JCRKey>> byUserId = new HashMap<String, List<JCRKey>>();
+        for (JCRKey key : keys) {
+            List<JCRKey> userKeys = byUserId.get(key.getUserId());
+            if (userKeys == null) {
+                userKeys = new ArrayList<JCRKey>();
+                byUserId.put(key.getUserId(), userKeys);
+            }
+            userKeys.add(key);
+        }
+        for (Map.Entry<String, List<JCRKey>> entry : byUserId.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return byUserId;
+    }
+
+    private static Set<Algorithm> algorithmsOf(List<JCRKey> keys) {
+        Set<Algorithm> algorithms = new LinkedHashSet<Algorithm>();
+        for (JCRKey key : keys) {
+            algorithms.addAll(key.getAlgorithms());
+        }
+        return Collections.unmodifiableSet(algorithms);
+    }
+
+    /**
+     * Read-only view of the keys by keyId, which only builds its entries if iterated.
+     */
+    private final class KeyIdMap extends AbstractMap<String, Key> {
+        private volatile Set<Entry<String, Key>> entries;
+
+        @Override
+        public Key get(Object key) {
+            return key instanceof String ? getKeyById((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, Key>> entrySet() {
+            Set<Entry<String, Key>> entries = this.entries;
+            if (entries == null) {
+                Map<String, Key> map = new LinkedHashMap<String, Key>();
+                for (JCRKey key : keys) {
+                    String id = keyId.getId(key);
+                    if (id != null && !map.containsKey(id)) {
+                        map.put(id, key);
+                    }
+                }
+                entries = Collections.unmodifiableMap(map).entrySet();
+                this.entries = entries;
+            }
+            return entries;
+        }
+    }
+}
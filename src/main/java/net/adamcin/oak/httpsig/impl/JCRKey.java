@@ -28,24 +28,74 @@
 package net.adamcin.oak.httpsig.impl;
 
 import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
 import net.adamcin.httpsig.api.UserKey;
 import net.adamcin.httpsig.ssh.jce.FingerprintableKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.security.Signature;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
- * Wrapper for JCEKeys which implements {@link UserKey} and {@link net.adamcin.httpsig.ssh.jce.FingerprintableKey}
+ * Wrapper for JCEKeys which implements {@link UserKey} and {@link net.adamcin.httpsig.ssh.jce.FingerprintableKey}.
+ * When the wrapped key is an {@link OpenSSHKey}, its decoded public key is reused and the {@link Signature} instances
+ * initialized for verification are pooled per {@link Algorithm}, so that provider lookup and key initialization only
+ * happen while the pool warms up. The pools are created on first use, so that keys which are never used do not hold
+ * them.
  */
 public class JCRKey implements UserKey, FingerprintableKey {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(JCRKey.class);
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
     private final String userId;
     private final FingerprintableKey key;
+    private volatile Map<Algorithm, BlockingQueue<Signature>> signatures;
 
     public JCRKey(String userId, FingerprintableKey key) {
         this.userId = userId;
         this.key = key;
     }
 
+    /**
+     * @return the wrapped key
+     */
+    FingerprintableKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return the raw fingerprint of a wrapped {@link OpenSSHKey}, which must not be modified, or null
+     */
+    byte[] getDigest() {
+        return key instanceof OpenSSHKey ? ((OpenSSHKey) key).getDigest() : null;
+    }
+
+    private BlockingQueue<Signature> getPool(Algorithm algorithm) {
+        Map<Algorithm, BlockingQueue<Signature>> signatures = this.signatures;
+        if (signatures == null) {
+            synchronized (this) {
+                signatures = this.signatures;
+                if (signatures == null) {
+                    signatures = new EnumMap<Algorithm, BlockingQueue<Signature>>(Algorithm.class);
+                    for (Algorithm keyAlgorithm : key.getAlgorithms()) {
+                        signatures.put(keyAlgorithm, new ArrayBlockingQueue<Signature>(POOL_SIZE));
+                    }
+                    this.signatures = signatures;
+                }
+            }
+        }
+        return signatures.get(algorithm);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -91,7 +141,86 @@ public class JCRKey implements UserKey, FingerprintableKey {
      */
     @Override
     public boolean verify(Algorithm algorithm, byte[] contentBytes, byte[] signatureBytes) {
-        return key.verify(algorithm, contentBytes, signatureBytes);
+        Object event = LoginEvents.begin(LoginEvents.Phase.VERIFY);
+        boolean verified = verifyBytes(algorithm, contentBytes, signatureBytes);
+        if (event != null) {
+            LoginEvents.commit(event, userId, JCRKeyId.getId(userId, getFingerprint()), algorithm, verified);
+        }
+        return verified;
+    }
+
+    private boolean verifyBytes(Algorithm algorithm, byte[] contentBytes, byte[] signatureBytes) {
+        if (!(key instanceof OpenSSHKey)) {
+            return key.verify(algorithm, contentBytes, signatureBytes);
+        }
+
+        BlockingQueue<Signature> pool = algorithm != null ? getPool(algorithm) : null;
+        if (pool == null || contentBytes == null || signatureBytes == null) {
+            return false;
+        }
+
+        OpenSSHKey sshKey = (OpenSSHKey) key;
+        Signature signature = pool.poll();
+        try {
+            if (signature == null) {
+                signature = sshKey.newVerifySignature(algorithm);
+            }
+            signature.update(contentBytes);
+            boolean verified = signature.verify(sshKey.toJcaSignature(signatureBytes));
+            // verify() resets the signature to its initialized state, so it can be reused
+            pool.offer(signature);
+            return verified;
+        } catch (Exception e) {
+            // the signature state is undefined after a failure, so it is discarded rather than returned to the pool
+            LOGGER.debug("Failed to verify signature: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Verifies a signature over the signing string of the request content, feeding the signed headers into the
+     * signature incrementally rather than building the signing string first.
+     * @param algorithm the signature algorithm
+     * @param content the request content
+     * @param headers the signed header names
+     * @param signatureBytes the signature
+     * @return true if the signature is valid
+     */
+    public boolean verify(Algorithm algorithm, RequestContent content, List<String> headers, byte[] signatureBytes) {
+        Object event = LoginEvents.begin(LoginEvents.Phase.VERIFY);
+        boolean verified = verifyContent(algorithm, content, headers, signatureBytes);
+        if (event != null) {
+            LoginEvents.commit(event, userId, JCRKeyId.getId(userId, getFingerprint()), algorithm, verified);
+        }
+        return verified;
+    }
+
+    private boolean verifyContent(Algorithm algorithm, RequestContent content, List<String> headers,
+                                  byte[] signatureBytes) {
+        if (!(key instanceof OpenSSHKey)) {
+            return content != null
+                    && key.verify(algorithm, content.getContent(headers, Constants.CHARSET), signatureBytes);
+        }
+
+        BlockingQueue<Signature> pool = algorithm != null ? getPool(algorithm) : null;
+        if (pool == null || content == null || signatureBytes == null) {
+            return false;
+        }
+
+        OpenSSHKey sshKey = (OpenSSHKey) key;
+        Signature signature = pool.poll();
+        try {
+            if (signature == null) {
+                signature = sshKey.newVerifySignature(algorithm);
+            }
+            SigningString.update(signature, content, headers);
+            boolean verified = signature.verify(sshKey.toJcaSignature(signatureBytes));
+            pool.offer(signature);
+            return verified;
+        } catch (Exception e) {
+            LOGGER.debug("Failed to verify signature: {}", e.getMessage());
+            return false;
+        }
     }
 
     /**
@@ -0,0 +1,102 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Key;
+import net.adamcin.httpsig.api.KeyId;
+import net.adamcin.httpsig.api.UserKey;
+import net.adamcin.httpsig.ssh.jce.FingerprintableKey;
+
+/**
+ * {@link KeyId} implementation which identifies a {@link JCRKey} by its userId and fingerprint, in the form
+ * "/{userId}/keys/{fingerprint}".
+ */
+public final class JCRKeyId implements KeyId {
+
+    private static final String KEYS_SEGMENT = "/keys/";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getId(Key key) {
+        if (key instanceof UserKey && key instanceof FingerprintableKey) {
+            return getId(((UserKey) key).getUserId(), ((FingerprintableKey) key).getFingerprint());
+        }
+        return null;
+    }
+
+    /**
+     * Builds a keyId from a userId and a key fingerprint.
+     * @param userId the userId
+     * @param fingerprint the key fingerprint
+     * @return the keyId
+     */
+    public static String getId(String userId, String fingerprint) {
+        return "/" + userId + KEYS_SEGMENT + fingerprint;
+    }
+
+    /**
+     * @param keyId a keyId built by this class
+     * @return the index of the fingerprint in the keyId, or -1 if the keyId is not in the expected form
+     */
+    static int getFingerprintOffset(String keyId) {
+        if (keyId == null || !keyId.startsWith("/")) {
+            return -1;
+        }
+        int keysSegment = keyId.lastIndexOf(KEYS_SEGMENT);
+        return keysSegment > 1 ? keysSegment + KEYS_SEGMENT.length() : -1;
+    }
+
+    /**
+     * @param keyId a keyId built by this class
+     * @param fingerprintOffset the offset returned by {@link #getFingerprintOffset(String)}
+     * @param userId a userId
+     * @return true if the keyId names the userId, compared without extracting it
+     */
+    static boolean matchesUserId(String keyId, int fingerprintOffset, String userId) {
+        int length = fingerprintOffset - KEYS_SEGMENT.length() - 1;
+        return userId != null && userId.length() == length && keyId.regionMatches(1, userId, 0, length);
+    }
+
+    /**
+     * Extracts the userId from a keyId built by this class.
+     * @param keyId the keyId
+     * @return the userId, or null if the keyId is not in the expected form
+     */
+    public static String getUserId(String keyId) {
+        if (keyId == null || !keyId.startsWith("/")) {
+            return null;
+        }
+        int keysSegment = keyId.lastIndexOf(KEYS_SEGMENT);
+        if (keysSegment <= 1) {
+            return null;
+        }
+        return keyId.substring(1, keysSegment);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.ssh.jce.FingerprintableKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Binary snapshot of the keys loaded from authorized_keys files, so that a restart can restore them from a single
+ * memory-mapped file instead of reparsing the OpenSSH text of every file. For each file, the snapshot holds the
+ * userId, path, length, last modified time and CRC-32 of the contents it was built from, followed by the SSH wire
+ * encoding and fingerprint of each key. KeyIds are derived from the userId and fingerprint, so they are not stored.
+ * The snapshot ends with an HMAC-SHA256 of its own contents, keyed by a secret from the configuration, so that a
+ * process able to write the snapshot but not to read the configuration cannot use it to inject keys.
+ * <p>
+ * A file's keys are only restored when the snapshot is authentic and the file still matches its recorded length,
+ * last modified time and checksum. Files which don't match, or are missing from the snapshot, are parsed as usual.
+ * The mapping of the snapshot is released as soon as it has been read, so that it can be replaced later.
+ */
+final class KeychainSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeychainSnapshot.class);
+
+    private static final int MAGIC = 0x48534b43;
+    private static final int VERSION = 2;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+
+    private KeychainSnapshot() {
+    }
+
+    /**
+     * Restores the keys of the files which are unchanged since the snapshot was written.
+     * @param snapshot the snapshot file
+     * @param secret the secret with which the snapshot was authenticated
+     * @param keysFiles the configured files by userId
+     * @return the number of files restored
+     */
+    static int restore(File snapshot, byte[] secret, Map<String, AuthorizedKeysFile> keysFiles) {
+        if (!snapshot.isFile()) {
+            return 0;
+        }
+        int restored = 0;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+                try {
+                    if (!isValid(buffer, secret)) {
+                        LOGGER.warn("Ignoring invalid or unauthenticated keychain snapshot {}", snapshot);
+                        return 0;
+                    }
+                    restored = restore(buffer, keysFiles);
+                } finally {
+                    unmap(buffer);
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to read keychain snapshot " + snapshot, e);
+        }
+        return restored;
+    }
+
+    private static int restore(ByteBuffer buffer, Map<String, AuthorizedKeysFile> keysFiles)
+            throws IOException, GeneralSecurityException {
+        int restored = 0;
+        buffer.position(8);
+        int fileCount = buffer.getInt();
+        for (int i = 0; i < fileCount; i++) {
+            String userId = getString(buffer);
+            String path = getString(buffer);
+            long length = buffer.getLong();
+            long lastModified = buffer.getLong();
+            long checksum = buffer.getLong();
+            int keyCount = buffer.getInt();
+            List<JCRKey> keys = new ArrayList<JCRKey>(keyCount);
+            for (int k = 0; k < keyCount; k++) {
+                byte[] blob = new byte[buffer.getInt()];
+                buffer.get(blob);
+                String fingerprint = getString(buffer);
+                OpenSSHKey key = OpenSSHKey.decode(blob, fingerprint);
+                if (key != null) {
+                    keys.add(new JCRKey(userId, key));
+                }
+            }
+
+            AuthorizedKeysFile keysFile = keysFiles.get(userId);
+            if (keysFile != null && keysFile.getFile().getPath().equals(path)
+                    && keysFile.restore(length, lastModified, checksum, keys)) {
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Writes a snapshot of the files which have been read, replacing the previous snapshot atomically where the file
+     * system allows.
+     * @param snapshot the snapshot file
+     * @param secret the secret with which to authenticate the snapshot
+     * @param keysFiles the configured files
+     */
+    static void write(File snapshot, byte[] secret, Collection<AuthorizedKeysFile> keysFiles) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        List<AuthorizedKeysFile> files = new ArrayList<AuthorizedKeysFile>();
+        for (AuthorizedKeysFile keysFile : keysFiles) {
+            if (keysFile.getChecksum() >= 0L && isSnapshotable(keysFile.getKeys())) {
+                files.add(keysFile);
+            }
+        }
+        out.writeInt(files.size());
+        for (AuthorizedKeysFile keysFile : files) {
+            List<JCRKey> keys = keysFile.getKeys();
+            putString(out, keysFile.getUserId());
+            putString(out, keysFile.getFile().getPath());
+            out.writeLong(keysFile.getLength());
+            out.writeLong(keysFile.getLastModified());
+            out.writeLong(keysFile.getChecksum());
+            out.writeInt(keys.size());
+            for (JCRKey key : keys) {
+                byte[] blob = ((OpenSSHKey) key.getKey()).getBlob();
+                out.writeInt(blob.length);
+                out.write(blob);
+                putString(out, key.getFingerprint());
+            }
+        }
+        out.flush();
+
+        byte[] contents = bytes.toByteArray();
+        byte[] mac;
+        try {
+            mac = newMac(secret).doFinal(contents);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to authenticate keychain snapshot: " + e.getMessage());
+        }
+
+        File temp = new File(snapshot.getPath() + ".tmp");
+        File parent = temp.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        DataOutputStream fileOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            fileOut.write(contents);
+            fileOut.write(mac);
+        } finally {
+            fileOut.close();
+        }
+        if (!temp.renameTo(snapshot)) {
+            if (!snapshot.delete() || !temp.renameTo(snapshot)) {
+                throw new IOException("Failed to replace keychain snapshot " + snapshot);
+            }
+        }
+    }
+
+    private static boolean isSnapshotable(List<JCRKey> keys) {
+        for (JCRKey key : keys) {
+            FingerprintableKey wrapped = key.getKey();
+            if (!(wrapped instanceof OpenSSHKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValid(ByteBuffer buffer, byte[] secret) throws GeneralSecurityException {
+        int limit = buffer.limit();
+        if (limit < 12 + MAC_LENGTH || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return false;
+        }
+        Mac mac = newMac(secret);
+        ByteBuffer contents = buffer.duplicate();
+        contents.position(0);
+        contents.limit(limit - MAC_LENGTH);
+        mac.update(contents);
+        byte[] expected = new byte[MAC_LENGTH];
+        ByteBuffer trailer = buffer.duplicate();
+        trailer.position(limit - MAC_LENGTH);
+        trailer.get(expected);
+        return MessageDigest.isEqual(mac.doFinal(), expected);
+    }
+
+    private static Mac newMac(byte[] secret) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+        return mac;
+    }
+
+    /**
+     * Releases the mapping without waiting for the buffer to be collected, which would otherwise keep the snapshot
+     * from being replaced on some platforms. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field unsafe = unsafeClass.getDeclaredField("theUnsafe");
+            unsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafe.get(null), buffer);
+        } catch (Exception e) {
+            try {
+                // Java 8 and earlier
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception e2) {
+                LOGGER.debug("Unable to unmap keychain snapshot, leaving it to be released when collected");
+            }
+        }
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
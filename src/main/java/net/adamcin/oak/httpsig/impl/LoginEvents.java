@@ -0,0 +1,333 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emits a Java Flight Recorder event for each phase of a signature login, carrying the userId, keyId, algorithm and
+ * outcome of the phase, so that a slow or failing login can be attributed to a phase in a recording.
+ * <p>
+ * The bundle targets runtimes which predate the {@code jdk.jfr} API, so the event types are defined at runtime through
+ * {@code jdk.jfr.EventFactory}, by reflection. A {@code FlightRecorderListener} caches whether each event type is
+ * enabled in a running recording whenever a recording changes state; until a phase's type is, {@link #begin(Phase)}
+ * costs a single volatile read and returns null, and {@link #commit(Object, String, String, Algorithm, Object)}
+ * returns immediately. An enabled event only has its fields set and is only committed if it passes
+ * {@code shouldCommit()}, which applies the threshold of the recording. Each type has a default threshold of
+ * {@value #DEFAULT_THRESHOLD}, so that continuous recording keeps only slow phases unless its settings lower it for
+ * the event name. On runtimes without JFR, the events are never enabled.
+ */
+final class LoginEvents {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoginEvents.class);
+
+    static final String EVENT_PREFIX = "net.adamcin.oak.httpsig.";
+
+    static final String DEFAULT_THRESHOLD = "1 ms";
+
+    /**
+     * The phases of a signature login, each recorded as its own event type.
+     */
+    enum Phase {
+        LOGIN("Login", "Signature Login"),
+        GET_VERIFIER("GetVerifier", "Signature Login: Get Verifier"),
+        SELECT_KEY("SelectKey", "Signature Login: Select Key"),
+        VERIFY("Verify", "Signature Login: Verify"),
+        GET_PRINCIPALS("GetPrincipals", "Signature Login: Get Principals"),
+        COMMIT("Commit", "Signature Login: Commit");
+
+        private final String eventName;
+        private final String label;
+
+        /**
+         * the jdk.jfr.EventFactory of the phase, if available
+         */
+        private volatile Object factory;
+
+        /**
+         * the jdk.jfr.EventType of the phase, if available
+         */
+        private volatile Object eventType;
+
+        /**
+         * true if the event type is enabled in a running recording
+         */
+        private volatile boolean enabled;
+
+        Phase(String name, String label) {
+            this.eventName = EVENT_PREFIX + name;
+            this.label = label;
+        }
+
+        String getEventName() {
+            return eventName;
+        }
+    }
+
+    private static final String[] FIELDS = {"userId", "keyId", "algorithm", "outcome"};
+    private static final String[] CATEGORY = {"Apache Jackrabbit Oak", "HTTP Signature Authentication"};
+
+    private static Method newEvent;
+    private static Method beginEvent;
+    private static Method setField;
+    private static Method endEvent;
+    private static Method shouldCommit;
+    private static Method commitEvent;
+    private static Method isTypeEnabled;
+    private static Method getFlightRecorder;
+    private static Method getRecordings;
+    private static Method getState;
+
+    static {
+        try {
+            init();
+        } catch (ClassNotFoundException e) {
+            LOGGER.debug("Flight Recorder API not available, login events are disabled");
+        } catch (Exception e) {
+            LOGGER.warn("Failed to register login events: {}", e.toString());
+        } catch (LinkageError e) {
+            LOGGER.warn("Failed to register login events: {}", e.toString());
+        }
+    }
+
+    private LoginEvents() {
+        // no instances
+    }
+
+    //------------------------------------------------------------< events >---
+
+    /**
+     * @param phase the login phase
+     * @return true if a running flight recording has enabled the event type of the phase
+     */
+    static boolean isEnabled(Phase phase) {
+        return phase.enabled;
+    }
+
+    /**
+     * Starts timing a phase.
+     *
+     * @param phase the login phase
+     * @return the started event, to be passed to {@link #commit(Object, String, String, Algorithm, Object)}, or null
+     * if the event type of the phase is not enabled
+     */
+    @CheckForNull
+    static Object begin(Phase phase) {
+        if (!phase.enabled) {
+            return null;
+        }
+        Object factory = phase.factory;
+        if (factory == null) {
+            return null;
+        }
+        try {
+            Object event = newEvent.invoke(factory);
+            beginEvent.invoke(event);
+            return event;
+        } catch (Exception e) {
+            LOGGER.debug("Failed to begin {} event: {}", phase.eventName, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Ends and commits an event returned by {@link #begin(Phase)}, taking the keyId and algorithm from the
+     * credentials' authorization. Does nothing if the event is null.
+     *
+     * @param event       the started event
+     * @param userId      the userId of the key, if known
+     * @param credentials the signature credentials
+     * @param outcome     the outcome of the phase, recorded as its string value
+     */
+    static void commit(@Nullable Object event, @Nullable String userId, @Nonnull HttpsigCredentials credentials,
+                       @Nullable Object outcome) {
+        if (event == null) {
+            return;
+        }
+        Authorization authorization = credentials.getAuthorization();
+        commit(event, userId, authorization != null ? authorization.getKeyId() : null,
+                authorization != null ? authorization.getAlgorithm() : null, outcome);
+    }
+
+    /**
+     * Ends and commits an event returned by {@link #begin(Phase)}, unless it is below the threshold. Does nothing if
+     * the event is null.
+     *
+     * @param event     the started event
+     * @param userId    the userId of the key, if known
+     * @param keyId     the keyId of the request, if known
+     * @param algorithm the signature algorithm of the request, if known
+     * @param outcome   the outcome of the phase, recorded as its string value
+     */
+    static void commit(@Nullable Object event, @Nullable String userId, @Nullable String keyId,
+                       @Nullable Algorithm algorithm, @Nullable Object outcome) {
+        if (event == null) {
+            return;
+        }
+        try {
+            endEvent.invoke(event);
+            if (!Boolean.TRUE.equals(shouldCommit.invoke(event))) {
+                return;
+            }
+            setField.invoke(event, 0, userId);
+            setField.invoke(event, 1, keyId);
+            setField.invoke(event, 2, algorithm != null ? algorithm.getName() : null);
+            setField.invoke(event, 3, outcome != null ? outcome.toString() : null);
+            commitEvent.invoke(event);
+        } catch (Exception e) {
+            LOGGER.debug("Failed to commit login event: {}", e.toString());
+        }
+    }
+
+    //-----------------------------------------------------------< private >---
+
+    /**
+     * Defines the event types and registers the listener which tracks the recording state.
+     */
+    private static void init() throws Exception {
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+        Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory", false, loader);
+        Class<?> eventClass = Class.forName("jdk.jfr.Event", false, loader);
+        Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement", false, loader);
+        Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor", false, loader);
+        Class<?> recorderClass = Class.forName("jdk.jfr.FlightRecorder", false, loader);
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording", false, loader);
+        Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener", false, loader);
+
+        Constructor<?> newAnnotation = annotationElementClass.getConstructor(Class.class, Object.class);
+        Constructor<?> newDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class);
+        Method create = factoryClass.getMethod("create", List.class, List.class);
+
+        Object[] descriptors = new Object[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            descriptors[i] = newDescriptor.newInstance(String.class, FIELDS[i]);
+        }
+        for (Phase phase : Phase.values()) {
+            List<Object> annotations = Arrays.asList(
+                    newAnnotation.newInstance(Class.forName("jdk.jfr.Name", false, loader), phase.eventName),
+                    newAnnotation.newInstance(Class.forName("jdk.jfr.Label", false, loader), phase.label),
+                    newAnnotation.newInstance(Class.forName("jdk.jfr.Category", false, loader), CATEGORY),
+                    newAnnotation.newInstance(Class.forName("jdk.jfr.Threshold", false, loader), DEFAULT_THRESHOLD));
+            Object factory = create.invoke(null, annotations, Arrays.asList(descriptors));
+            phase.eventType = factoryClass.getMethod("getEventType").invoke(factory);
+            phase.factory = factory;
+        }
+
+        newEvent = factoryClass.getMethod("newEvent");
+        beginEvent = eventClass.getMethod("begin");
+        endEvent = eventClass.getMethod("end");
+        shouldCommit = eventClass.getMethod("shouldCommit");
+        setField = eventClass.getMethod("set", int.class, Object.class);
+        commitEvent = eventClass.getMethod("commit");
+        isTypeEnabled = Class.forName("jdk.jfr.EventType", false, loader).getMethod("isEnabled");
+        getFlightRecorder = recorderClass.getMethod("getFlightRecorder");
+        getRecordings = recorderClass.getMethod("getRecordings");
+        getState = recordingClass.getMethod("getState");
+
+        recorderClass.getMethod("addListener", listenerClass).invoke(null, newListener(listenerClass));
+        // the listener is only told about recordings which change state after it is added
+        if (Boolean.TRUE.equals(recorderClass.getMethod("isInitialized").invoke(null))) {
+            refresh();
+        }
+    }
+
+    /**
+     * Implements the listener interface in its own class loader, since the loader of this class, such as an OSGi
+     * bundle class loader, may not be able to see {@code jdk.jfr}.
+     * @param listenerClass the {@code jdk.jfr.FlightRecorderListener} interface
+     * @return the listener
+     */
+    static Object newListener(Class<?> listenerClass) {
+        return Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[]{listenerClass},
+                new RecorderListener());
+    }
+
+    /**
+     * Caches whether each phase's event type is enabled, which it can only be while a recording is running. Only
+     * called once the recorder is initialized, because {@code FlightRecorder.getFlightRecorder()} would otherwise
+     * initialize it.
+     */
+    private static void refresh() {
+        try {
+            Object recordings = getRecordings.invoke(getFlightRecorder.invoke(null));
+            boolean running = false;
+            for (Object recording : (List<?>) recordings) {
+                if ("RUNNING".equals(String.valueOf(getState.invoke(recording)))) {
+                    running = true;
+                    break;
+                }
+            }
+            for (Phase phase : Phase.values()) {
+                Object eventType = phase.eventType;
+                phase.enabled = running && eventType != null
+                        && Boolean.TRUE.equals(isTypeEnabled.invoke(eventType));
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Failed to read recording state: {}", e.toString());
+        }
+    }
+
+    /**
+     * Implements {@code jdk.jfr.FlightRecorderListener} by proxy.
+     */
+    private static final class RecorderListener implements InvocationHandler {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("recordingStateChanged".equals(name) || "recorderInitialized".equals(name)) {
+                refresh();
+                return null;
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return args != null && args.length == 1 && proxy == args[0];
+            } else if ("toString".equals(name)) {
+                return RecorderListener.class.getName();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.ssh.jce.FingerprintableKey;
+import net.adamcin.oak.httpsig.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.DSAPublicKeySpec;
+import java.security.spec.KeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Verify-only {@link FingerprintableKey} decoded from a single OpenSSH public key entry, such as a line of an
+ * authorized_keys file or a value of a user's authorized keys property.
+ * <p>
+ * Only ssh-rsa and ssh-dss entries are supported, since the httpsig {@link Algorithm} enum defines no other public
+ * key algorithms. Entries of other types are skipped.
+ * <p>
+ * To keep large keychains small, a key only holds its type, its SSH wire encoding and its raw MD5 fingerprint. The
+ * fingerprint string and the JCA public key are only created the first time they are needed, and are then kept, so
+ * that keys which are never used stay small and keys which are used do not allocate on every login.
+ */
+public final class OpenSSHKey implements FingerprintableKey {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenSSHKey.class);
+
+    static final String TYPE_RSA = "ssh-rsa";
+    static final String TYPE_DSS = "ssh-dss";
+
+    private static final Map<Algorithm, String> JCA_ALGORITHMS = new EnumMap<Algorithm, String>(Algorithm.class);
+    private static final Map<String, Set<Algorithm>> TYPE_ALGORITHMS = new HashMap<String, Set<Algorithm>>();
+    private static final int FINGERPRINT_LENGTH = 16;
+    private static final String HEX_DIGITS = "0123456789abcdef";
+    private static final Set<Algorithm> SUPPORTED_ALGORITHMS;
+
+    static {
+        JCA_ALGORITHMS.put(Algorithm.SSH_RSA, "SHA1withRSA");
+        JCA_ALGORITHMS.put(Algorithm.RSA_SHA1, "SHA1withRSA");
+        JCA_ALGORITHMS.put(Algorithm.RSA_SHA256, "SHA256withRSA");
+        JCA_ALGORITHMS.put(Algorithm.RSA_SHA512, "SHA512withRSA");
+        JCA_ALGORITHMS.put(Algorithm.SSH_DSS, "SHA1withDSA");
+        JCA_ALGORITHMS.put(Algorithm.DSA_SHA1, "SHA1withDSA");
+
+        TYPE_ALGORITHMS.put(TYPE_RSA, Collections.unmodifiableSet(
+                EnumSet.of(Algorithm.SSH_RSA, Algorithm.RSA_SHA1, Algorithm.RSA_SHA256, Algorithm.RSA_SHA512)));
+        TYPE_ALGORITHMS.put(TYPE_DSS, Collections.unmodifiableSet(
+                EnumSet.of(Algorithm.SSH_DSS, Algorithm.DSA_SHA1)));
+
+        Set<Algorithm> supported = EnumSet.noneOf(Algorithm.class);
+        for (Set<Algorithm> algorithms : TYPE_ALGORITHMS.values()) {
+            supported.addAll(algorithms);
+        }
+        SUPPORTED_ALGORITHMS = Collections.unmodifiableSet(supported);
+    }
+
+    private final String type;
+    private final byte[] blob;
+    private final byte[] digest;
+    private volatile PublicKey publicKey;
+    private volatile String fingerprint;
+
+    private OpenSSHKey(String type, byte[] blob, byte[] digest) {
+        this.type = type;
+        this.blob = blob;
+        this.digest = digest;
+    }
+
+    /**
+     * Parses an OpenSSH public key entry of the form "[options] type base64-blob [comment]".
+     * @param entry the public key entry
+     * @return the decoded key, or null if the entry is blank, a comment, or not a supported key type
+     */
+    public static OpenSSHKey parse(String entry) {
+        if (entry == null) {
+            return null;
+        }
+        String trimmed = entry.trim();
+        if (trimmed.length() == 0 || trimmed.startsWith("#")) {
+            return null;
+        }
+        String[] tokens = trimmed.split("\\s+");
+        for (int i = 0; i < tokens.length - 1; i++) {
+            if (TYPE_ALGORITHMS.containsKey(tokens[i])) {
+                try {
+                    String type = canonicalType(tokens[i]);
+                    byte[] blob = Base64.decode(tokens[i + 1]);
+                    // decode once to reject malformed keys, but keep only the blob until the key is used
+                    toPublicKey(type, blob);
+                    return new OpenSSHKey(type, blob, MessageDigest.getInstance("MD5").digest(blob));
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to decode {} public key: {}", tokens[i], e.getMessage());
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the algorithms which can be verified by keys of any supported type
+     */
+    public static Set<Algorithm> getSupportedAlgorithms() {
+        return SUPPORTED_ALGORITHMS;
+    }
+
+    /**
+     * Wraps a public key blob previously returned by {@link #getBlob()}, such as one read from a
+     * {@link KeychainSnapshot}, without parsing an entry, decoding the public key or recomputing the fingerprint.
+     * @param blob the SSH wire encoding of the public key
+     * @param fingerprint the fingerprint of the blob
+     * @return the key, or null if its type is not supported
+     */
+    static OpenSSHKey decode(byte[] blob, String fingerprint) throws IOException, GeneralSecurityException {
+        String type = new String(readString(new DataInputStream(new ByteArrayInputStream(blob))), "US-ASCII");
+        if (!TYPE_ALGORITHMS.containsKey(type)) {
+            return null;
+        }
+        byte[] digest = parseFingerprint(fingerprint, 0);
+        return new OpenSSHKey(canonicalType(type), blob,
+                digest != null ? digest : MessageDigest.getInstance("MD5").digest(blob));
+    }
+
+    /**
+     * Parses a fingerprint in the colon-separated hex form returned by {@link #getFingerprint()}.
+     * @param fingerprint a string containing the fingerprint
+     * @param offset the index at which the fingerprint starts, and which it must extend to the end of the string
+     * @return the raw fingerprint, or null if the string does not end in a fingerprint at the offset
+     */
+    static byte[] parseFingerprint(String fingerprint, int offset) {
+        if (fingerprint == null || fingerprint.length() - offset != FINGERPRINT_LENGTH * 3 - 1) {
+            return null;
+        }
+        byte[] digest = new byte[FINGERPRINT_LENGTH];
+        for (int i = 0; i < FINGERPRINT_LENGTH; i++) {
+            int pos = offset + i * 3;
+            int high = Character.digit(fingerprint.charAt(pos), 16);
+            int low = Character.digit(fingerprint.charAt(pos + 1), 16);
+            if (high < 0 || low < 0 || (i > 0 && fingerprint.charAt(pos - 1) != ':')) {
+                return null;
+            }
+            digest[i] = (byte) ((high << 4) | low);
+        }
+        return digest;
+    }
+
+    private static String formatFingerprint(byte[] digest) {
+        char[] chars = new char[digest.length * 3 - 1];
+        for (int i = 0; i < digest.length; i++) {
+            int pos = i * 3;
+            if (i > 0) {
+                chars[pos - 1] = ':';
+            }
+            chars[pos] = HEX_DIGITS.charAt((digest[i] >> 4) & 0xf);
+            chars[pos + 1] = HEX_DIGITS.charAt(digest[i] & 0xf);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the shared constant for a supported key type, so that keys do not each hold a copy of the type name
+     */
+    private static String canonicalType(String type) {
+        for (String knownType : TYPE_ALGORITHMS.keySet()) {
+            if (knownType.equals(type)) {
+                return knownType;
+            }
+        }
+        return type;
+    }
+
+    private static PublicKey toPublicKey(String type, byte[] blob) throws IOException, GeneralSecurityException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+        String blobType = new String(readString(in), "US-ASCII");
+        if (!type.equals(blobType)) {
+            throw new IOException("key type " + type + " does not match encoded type " + blobType);
+        }
+
+        KeySpec spec;
+        String keyAlgorithm;
+        if (TYPE_RSA.equals(type)) {
+            BigInteger e = readMpint(in);
+            BigInteger n = readMpint(in);
+            spec = new RSAPublicKeySpec(n, e);
+            keyAlgorithm = "RSA";
+        } else {
+            BigInteger p = readMpint(in);
+            BigInteger q = readMpint(in);
+            BigInteger g = readMpint(in);
+            BigInteger y = readMpint(in);
+            spec = new DSAPublicKeySpec(y, p, q, g);
+            keyAlgorithm = "DSA";
+        }
+
+        return KeyFactory.getInstance(keyAlgorithm).generatePublic(spec);
+    }
+
+    private static byte[] readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("invalid length in public key blob: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static BigInteger readMpint(DataInputStream in) throws IOException {
+        return new BigInteger(readString(in));
+    }
+
+    /**
+     * @return the OpenSSH key type, i.e. "ssh-rsa" or "ssh-dss"
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the SSH wire encoding of the public key, which must not be modified
+     */
+    byte[] getBlob() {
+        return blob;
+    }
+
+    /**
+     * @return the raw MD5 fingerprint, which must not be modified
+     */
+    byte[] getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return the decoded JCA public key, or null if the blob cannot be decoded
+     */
+    public PublicKey getPublicKey() {
+        try {
+            return decodePublicKey();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to decode {} public key: {}", type, e.getMessage());
+            return null;
+        }
+    }
+
+    private PublicKey decodePublicKey() throws IOException, GeneralSecurityException {
+        PublicKey publicKey = this.publicKey;
+        if (publicKey == null) {
+            // racing threads decode equal keys, and either may be kept
+            publicKey = toPublicKey(type, blob);
+            this.publicKey = publicKey;
+        }
+        return publicKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getFingerprint() {
+        String fingerprint = this.fingerprint;
+        if (fingerprint == null) {
+            // racing threads format equal strings, and either may be kept
+            fingerprint = formatFingerprint(digest);
+            this.fingerprint = fingerprint;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getId() {
+        return getFingerprint();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Algorithm> getAlgorithms() {
+        return TYPE_ALGORITHMS.get(type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canVerify() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean verify(Algorithm algorithm, byte[] contentBytes, byte[] signatureBytes) {
+        if (contentBytes == null || signatureBytes == null) {
+            return false;
+        }
+        try {
+            Signature signature = newVerifySignature(algorithm);
+            if (signature == null) {
+                return false;
+            }
+            signature.update(contentBytes);
+            return signature.verify(toJcaSignature(signatureBytes));
+        } catch (Exception e) {
+            LOGGER.debug("Failed to verify signature: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canSign() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] sign(Algorithm algorithm, byte[] contentBytes) {
+        return null;
+    }
+
+    /**
+     * Creates a {@link Signature} initialized for verification with this key.
+     * @param algorithm the httpsig algorithm
+     * @return the initialized signature, or null if this key cannot verify the algorithm
+     */
+    Signature newVerifySignature(Algorithm algorithm) throws IOException, GeneralSecurityException {
+        if (algorithm == null || !getAlgorithms().contains(algorithm)) {
+            return null;
+        }
+        Signature signature = Signature.getInstance(JCA_ALGORITHMS.get(algorithm));
+        signature.initVerify(decodePublicKey());
+        return signature;
+    }
+
+    /**
+     * Unwraps SSH signature blobs as returned by ssh-agent, and converts raw 40-byte ssh-dss signatures to the DER
+     * encoding expected by JCA.
+     */
+    byte[] toJcaSignature(byte[] signatureBytes) throws IOException {
+        byte[] raw = signatureBytes;
+        if (isWrapped(raw)) {
+            // compare the type in place, so that plain signatures are passed through without allocating
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw, 4 + type.length(),
+                    raw.length - 4 - type.length()));
+            raw = readString(in);
+        }
+
+        if (TYPE_DSS.equals(type) && raw.length == 40) {
+            return derEncode(new BigInteger(1, Arrays.copyOfRange(raw, 0, 20)),
+                    new BigInteger(1, Arrays.copyOfRange(raw, 20, 40)));
+        }
+        return raw;
+    }
+
+    private boolean isWrapped(byte[] signatureBytes) {
+        int typeLength = type.length();
+        if (signatureBytes.length <= 4 + typeLength) {
+            return false;
+        }
+        int length = ((signatureBytes[0] & 0xff) << 24) | ((signatureBytes[1] & 0xff) << 16)
+                | ((signatureBytes[2] & 0xff) << 8) | (signatureBytes[3] & 0xff);
+        if (length != typeLength) {
+            return false;
+        }
+        for (int i = 0; i < typeLength; i++) {
+            if (signatureBytes[4 + i] != type.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] derEncode(BigInteger r, BigInteger s) {
+        byte[] rBytes = r.toByteArray();
+        byte[] sBytes = s.toByteArray();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rBytes.length + sBytes.length + 8);
+        out.write(0x30);
+        out.write(rBytes.length + sBytes.length + 4);
+        out.write(0x02);
+        out.write(rBytes.length);
+        out.write(rBytes, 0, rBytes.length);
+        out.write(0x02);
+        out.write(sBytes.length);
+        out.write(sBytes, 0, sBytes.length);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache of the principals resolved for a userId after a successful login. Entries expire after a fixed
+ * time to live. As an {@link Observer}, the cache is also cleared whenever a change under the users or groups paths
+ * may affect the principals of any cached user: a changed principal name, authorizable id or group membership, an
+ * added node carrying group members, or a removed node. Login tokens and other properties of authorizables, which
+ * change on every login when tokens are issued, do not clear the cache.
+ */
+public final class PrincipalCache implements Observer {
+
+    /**
+     * Name of the node below a user which holds the login tokens created by the default token provider.
+     */
+    private static final String TOKENS_NODE_NAME = ".tokens";
+
+    private static final Set<String> PRINCIPAL_PROPERTIES = new HashSet<String>(Arrays.asList(
+            UserConstants.REP_MEMBERS, UserConstants.REP_PRINCIPAL_NAME, UserConstants.REP_AUTHORIZABLE_ID));
+
+    private final long ttl;
+    private final String[] authorizablePaths;
+    private final NodeState[] authorizableStates;
+    private final Map<String, CachedPrincipals> cache;
+    private long generation;
+
+    public PrincipalCache(final int cacheSize, long ttl, String... authorizablePaths) {
+        this.ttl = ttl;
+        this.authorizablePaths = authorizablePaths;
+        this.authorizableStates = new NodeState[authorizablePaths.length];
+        this.cache = new LinkedHashMap<String, CachedPrincipals>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPrincipals> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param userId the userId
+     * @return the cached principals of the user, or null if none are cached or they have expired
+     */
+    public Set<? extends Principal> getPrincipals(String userId) {
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            CachedPrincipals entry = cache.get(userId);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires <= now) {
+                cache.remove(userId);
+                return null;
+            }
+            return entry.principals;
+        }
+    }
+
+    /**
+     * @return the current generation of the cache, to be read before resolving principals that will be cached
+     */
+    public long getGeneration() {
+        synchronized (cache) {
+            return generation;
+        }
+    }
+
+    /**
+     * Caches the principals of a user, unless the cache has been cleared since {@code generation} was read, in which
+     * case the principals may already be stale.
+     * @param userId the userId
+     * @param principals the principals
+     * @param generation the value of {@link #getGeneration()} read before the principals were resolved
+     * @return an immutable copy of the principals
+     */
+    public Set<? extends Principal> putPrincipals(String userId, Set<? extends Principal> principals,
+                                                  long generation) {
+        Set<Principal> copy = Collections.unmodifiableSet(new HashSet<Principal>(principals));
+        CachedPrincipals entry = new CachedPrincipals(copy, System.currentTimeMillis() + ttl);
+        synchronized (cache) {
+            if (generation == this.generation) {
+                cache.put(userId, entry);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Evicts all cached users.
+     */
+    public void clear() {
+        synchronized (cache) {
+            generation++;
+            cache.clear();
+        }
+    }
+
+    /**
+     * Clears the cache if the users or groups subtrees differ from the states seen by the previous call in a way
+     * which may affect principals. Unchanged subtrees are shared between revisions and skipped by the diff, so the
+     * comparison is cheap in the common case.
+     * {@inheritDoc}
+     */
+    @Override
+    public void contentChanged(NodeState root, CommitInfo info) {
+        boolean changed = false;
+        synchronized (authorizableStates) {
+            for (int i = 0; i < authorizablePaths.length; i++) {
+                NodeState state = NodeStateUtils.getNode(root, authorizablePaths[i]);
+                NodeState previous = authorizableStates[i];
+                if (!changed && previous != null && previous != state) {
+                    changed = !state.compareAgainstBaseState(previous, PrincipalsDiff.CHANGES);
+                }
+                authorizableStates[i] = state;
+            }
+        }
+        if (changed) {
+            clear();
+        }
+    }
+
+    /**
+     * Aborts the diff, by returning false, at the first change which may affect principals. Does not descend into
+     * login tokens.
+     */
+    private static final class PrincipalsDiff extends DefaultNodeStateDiff {
+        private static final PrincipalsDiff CHANGES = new PrincipalsDiff(false);
+        private static final PrincipalsDiff ADDITIONS = new PrincipalsDiff(true);
+
+        private final boolean added;
+
+        private PrincipalsDiff(boolean added) {
+            this.added = added;
+        }
+
+        @Override
+        public boolean propertyAdded(PropertyState after) {
+            // a new user or group only affects existing users once it has members
+            return added ? !UserConstants.REP_MEMBERS.equals(after.getName())
+                    : !PRINCIPAL_PROPERTIES.contains(after.getName());
+        }
+
+        @Override
+        public boolean propertyChanged(PropertyState before, PropertyState after) {
+            return !PRINCIPAL_PROPERTIES.contains(after.getName());
+        }
+
+        @Override
+        public boolean propertyDeleted(PropertyState before) {
+            return !PRINCIPAL_PROPERTIES.contains(before.getName());
+        }
+
+        @Override
+        public boolean childNodeAdded(String name, NodeState after) {
+            return TOKENS_NODE_NAME.equals(name)
+                    || after.compareAgainstBaseState(EmptyNodeState.EMPTY_NODE, ADDITIONS);
+        }
+
+        @Override
+        public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+            return TOKENS_NODE_NAME.equals(name) || after.compareAgainstBaseState(before, this);
+        }
+
+        @Override
+        public boolean childNodeDeleted(String name, NodeState before) {
+            return TOKENS_NODE_NAME.equals(name);
+        }
+    }
+
+    private static final class CachedPrincipals {
+        private final Set<? extends Principal> principals;
+        private final long expires;
+
+        private CachedPrincipals(Set<? extends Principal> principals, long expires) {
+            this.principals = principals;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.oak.httpsig.Base64;
+import net.adamcin.oak.httpsig.ReplayStore;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+/**
+ * Rejects replays of accepted signatures within the skew window, by recording the keyId, date and signature of each
+ * verified request in a {@link ReplayStore} until the request's date falls out of the window. The store is given a
+ * Base64 SHA-256 digest of those fields rather than the fields themselves, so that every entry has the same small
+ * size however long the keyId and signature are.
+ */
+public final class ReplayCache {
+
+    private static final byte SEPARATOR = 0;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final ReplayStore store;
+    private final long skew;
+    private final HttpsigStats stats;
+
+    /**
+     * @param store the store of seen signatures
+     * @param skew the allowed clock skew in milliseconds
+     * @param stats optional stats in which to record rejected replays
+     */
+    public ReplayCache(ReplayStore store, long skew, HttpsigStats stats) {
+        this.store = store;
+        this.skew = skew;
+        this.stats = stats;
+    }
+
+    public ReplayStore getStore() {
+        return store;
+    }
+
+    /**
+     * Creates a cache for a new skew which still rejects the signatures accepted by this one. An
+     * {@link InMemoryReplayStore}, which is sized from the skew, is resized, and any other store is shared.
+     * @param skew the new allowed clock skew in milliseconds
+     * @return the new cache
+     */
+    public ReplayCache withSkew(long skew) {
+        ReplayStore resized = store;
+        if (store instanceof InMemoryReplayStore) {
+            // accepted signatures are remembered for as much longer as the skew grows
+            resized = ((InMemoryReplayStore) store).resize(2L * skew, skew - this.skew);
+        }
+        return new ReplayCache(resized, skew, stats);
+    }
+
+    /**
+     * @param authorization the verified authorization
+     * @param date the signed date of the request
+     * @return true if this is the first time the signature has been accepted
+     */
+    public boolean markSeen(Authorization authorization, Date date) {
+        boolean first = store.markSeen(key(authorization, date), date.getTime() + skew);
+        if (!first && stats != null) {
+            stats.recordReplayRejected();
+        }
+        return first;
+    }
+
+    private static String key(Authorization authorization, Date date) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(authorization.getKeyId().getBytes(Constants.CHARSET));
+        digest.update(SEPARATOR);
+        digest.update(String.valueOf(date.getTime()).getBytes(Constants.CHARSET));
+        digest.update(SEPARATOR);
+        digest.update(authorization.getSignatureBytes());
+        return Base64.encode(digest.digest());
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Key;
+import net.adamcin.httpsig.api.KeyId;
+import net.adamcin.oak.httpsig.HttpsigConfiguration;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Loads public keys stored as a multi-valued property of OpenSSH public key entries on each user's node. Keys are
+ * loaded the first time a keyId for a user is seen and held in a bounded LRU cache. As an {@link Observer}, the
+ * provider diffs each new root state against the previous one, descending only into changed nodes on the paths of
+ * cached users, and evicts a cached user whose keys property has changed or whose node has been removed. Changes
+ * below a user node, such as login tokens, and changes elsewhere in the repository cost almost nothing.
+ * <p>
+ * UserIds which do not resolve to a user are remembered for a limited time in a separate bounded cache, so that
+ * keyIds naming unknown users neither query the repository on every request nor evict the keys of real users.
+ */
+public final class RepositoryKeyProvider implements Observer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryKeyProvider.class);
+
+    private final KeyId keyId;
+    private final String keysProperty;
+    private final Map<String, UserKeys> cache;
+    private final NavigableMap<String, String> userPaths = new TreeMap<String, String>();
+    private volatile NodeState observedRoot;
+    private final long missingTtl;
+    private final Map<String, Long> missing;
+
+    public RepositoryKeyProvider(KeyId keyId, String keysProperty, int cacheSize) {
+        this(keyId, keysProperty, cacheSize, HttpsigConfiguration.DEFAULT_KEYS_MISSING_TTL);
+    }
+
+    /**
+     * @param keyId the keyId scheme
+     * @param keysProperty the name of the user property holding the public key entries
+     * @param cacheSize the maximum number of users whose keys are cached, and of unknown userIds remembered
+     * @param missingTtl the time in milliseconds for which a userId which does not resolve to a user is remembered
+     */
+    public RepositoryKeyProvider(KeyId keyId, String keysProperty, final int cacheSize, long missingTtl) {
+        this.keyId = keyId;
+        this.keysProperty = keysProperty;
+        this.cache = new LinkedHashMap<String, UserKeys>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserKeys> eldest) {
+                if (size() > cacheSize) {
+                    userPaths.remove(eldest.getValue().path);
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.missingTtl = missingTtl;
+        this.missing = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param keyId a keyId as it would appear in an Authorization header
+     * @return the cached key or null if the key's user has not been loaded or has no such key
+     */
+    public Key getKey(String keyId) {
+        String userId = JCRKeyId.getUserId(keyId);
+        if (userId == null) {
+            return null;
+        }
+        UserKeys userKeys;
+        synchronized (cache) {
+            userKeys = cache.get(userId);
+        }
+        return userKeys != null ? userKeys.keys.get(keyId) : null;
+    }
+
+    /**
+     * @param keyId a keyId as it would appear in an Authorization header
+     * @return true if the keys of the keyId's user are cached, or the user is remembered as unknown
+     */
+    public boolean isCached(String keyId) {
+        String userId = JCRKeyId.getUserId(keyId);
+        if (userId == null) {
+            return false;
+        }
+        synchronized (cache) {
+            return cache.get(userId) != null || isMissing(userId);
+        }
+    }
+
+    /**
+     * Loads and caches the keys of the user identified by the keyId, unless they are already cached or the user is
+     * remembered as unknown.
+     * @param keyId a keyId as it would appear in an Authorization header
+     * @param userManager the user manager of the current login
+     */
+    public void loadKeys(String keyId, UserManager userManager) {
+        String userId = JCRKeyId.getUserId(keyId);
+        if (userId == null || userManager == null) {
+            return;
+        }
+        synchronized (cache) {
+            if (cache.get(userId) != null || isMissing(userId)) {
+                return;
+            }
+        }
+
+        try {
+            Authorizable authorizable = userManager.getAuthorizable(userId);
+            if (authorizable == null || authorizable.isGroup()) {
+                synchronized (cache) {
+                    missing.put(userId, System.currentTimeMillis() + missingTtl);
+                }
+                return;
+            }
+            List<String> entries = new ArrayList<String>();
+            Value[] values = authorizable.getProperty(keysProperty);
+            if (values != null) {
+                for (Value value : values) {
+                    entries.add(value.getString());
+                }
+            }
+            UserKeys userKeys = new UserKeys(authorizable.getPath(), entries, userId);
+            synchronized (cache) {
+                UserKeys previous = cache.put(userId, userKeys);
+                if (previous != null) {
+                    userPaths.remove(previous.path);
+                }
+                userPaths.put(userKeys.path, userId);
+            }
+            // a change committed while the keys were read may have been diffed before the user was cached
+            NodeState observed = this.observedRoot;
+            if (observed != null && !isCurrent(userKeys, NodeStateUtils.getNode(observed, userKeys.path))) {
+                evict(userId, userKeys);
+            }
+        } catch (RepositoryException e) {
+            LOGGER.warn("Failed to load public keys for user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of users whose keys are currently cached
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Evicts all cached users, and forgets unknown userIds.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            userPaths.clear();
+            missing.clear();
+        }
+    }
+
+    /**
+     * Diffs the new root state against the previous one, and evicts cached users whose keys property has changed or
+     * whose node has been removed. Only changed nodes which are cached user nodes or their ancestors are visited.
+     * {@inheritDoc}
+     */
+    @Override
+    public void contentChanged(NodeState root, CommitInfo info) {
+        NodeState before = this.observedRoot;
+        this.observedRoot = root;
+        synchronized (cache) {
+            if (cache.isEmpty()) {
+                return;
+            }
+        }
+        if (before == null) {
+            // nothing to diff against, so the cached keys cannot be trusted to be current
+            synchronized (cache) {
+                cache.clear();
+                userPaths.clear();
+            }
+            return;
+        }
+        root.compareAgainstBaseState(before, new KeysDiff("/"));
+    }
+
+    private boolean isCurrent(UserKeys userKeys, NodeState node) {
+        return node.exists() && userKeys.entries.equals(readEntries(node.getProperty(keysProperty)));
+    }
+
+    private void evict(String userId, UserKeys userKeys) {
+        synchronized (cache) {
+            if (cache.get(userId) == userKeys) {
+                cache.remove(userId);
+                userPaths.remove(userKeys.path);
+            }
+        }
+    }
+
+    /**
+     * Evicts the cached users whose nodes are at or below a removed path.
+     */
+    private void evictRemoved(String path) {
+        String prefix = path + "/";
+        synchronized (cache) {
+            String userId = userPaths.remove(path);
+            if (userId != null) {
+                cache.remove(userId);
+            }
+            Iterator<Map.Entry<String, String>> entries = userPaths.tailMap(prefix, true).entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                cache.remove(entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if the path is an ancestor of the node of any cached user
+     */
+    private boolean isCachedAncestor(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (cache) {
+            String ceiling = userPaths.ceilingKey(prefix);
+            return ceiling != null && ceiling.startsWith(prefix);
+        }
+    }
+
+    /**
+     * Callers must hold the {@link #cache} lock.
+     */
+    private boolean isMissing(String userId) {
+        Long expires = missing.get(userId);
+        if (expires == null) {
+            return false;
+        }
+        if (expires <= System.currentTimeMillis()) {
+            missing.remove(userId);
+            return false;
+        }
+        return true;
+    }
+
+    private static List<String> readEntries(PropertyState property) {
+        List<String> entries = new ArrayList<String>();
+        if (property != null) {
+            if (property.isArray()) {
+                for (String value : property.getValue(Type.STRINGS)) {
+                    entries.add(value);
+                }
+            } else {
+                entries.add(property.getValue(Type.STRING));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Visits the changed nodes on the paths to cached users, checking the keys property of each changed user node
+     * without descending below it.
+     */
+    private final class KeysDiff extends DefaultNodeStateDiff {
+        private final String path;
+
+        private KeysDiff(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+            String childPath = path.endsWith("/") ? path + name : path + "/" + name;
+            String userId;
+            UserKeys userKeys = null;
+            synchronized (cache) {
+                userId = userPaths.get(childPath);
+                if (userId != null) {
+                    userKeys = cache.get(userId);
+                }
+            }
+            if (userKeys != null) {
+                if (!isCurrent(userKeys, after)) {
+                    evict(userId, userKeys);
+                }
+            } else if (isCachedAncestor(childPath)) {
+                after.compareAgainstBaseState(before, new KeysDiff(childPath));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean childNodeDeleted(String name, NodeState before) {
+            evictRemoved(path.endsWith("/") ? path + name : path + "/" + name);
+            return true;
+        }
+    }
+
+    private final class UserKeys {
+        private final String path;
+        private final List<String> entries;
+        private final Map<String, Key> keys;
+
+        private UserKeys(String path, List<String> entries, String userId) {
+            this.path = path;
+            this.entries = entries;
+            Map<String, Key> keys = new HashMap<String, Key>();
+            for (String entry : entries) {
+                OpenSSHKey sshKey = OpenSSHKey.parse(entry);
+                if (sshKey != null) {
+                    JCRKey key = new JCRKey(userId, sshKey);
+                    String id = keyId.getId(key);
+                    if (id != null) {
+                        keys.put(id, key);
+                    }
+                }
+            }
+            this.keys = keys.isEmpty() ? Collections.<String, Key>emptyMap() : keys;
+        }
+    }
+}
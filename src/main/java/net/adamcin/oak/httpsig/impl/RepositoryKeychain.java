@@ -0,0 +1,144 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Key;
+import net.adamcin.httpsig.api.KeyId;
+import net.adamcin.httpsig.api.Keychain;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link Keychain} which selects keys from an {@link IndexedKeychain} first, and then from the keys cached by a
+ * {@link RepositoryKeyProvider}. Iteration only covers the indexed keys, since repository keys are loaded lazily.
+ */
+public final class RepositoryKeychain implements Keychain {
+
+    private final IndexedKeychain indexedKeychain;
+    private final RepositoryKeyProvider keyProvider;
+    private final Set<Algorithm> algorithms;
+    private final Map<String, Key> keyMap;
+
+    public RepositoryKeychain(IndexedKeychain indexedKeychain, RepositoryKeyProvider keyProvider) {
+        this.indexedKeychain = indexedKeychain;
+        this.keyProvider = keyProvider;
+        Set<Algorithm> algorithms = new LinkedHashSet<Algorithm>(indexedKeychain.getAlgorithms());
+        algorithms.addAll(OpenSSHKey.getSupportedAlgorithms());
+        this.algorithms = Collections.unmodifiableSet(algorithms);
+        this.keyMap = new KeyMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Algorithm> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Keychain filterAlgorithms(Collection<Algorithm> algorithms) {
+        return indexedKeychain.filterAlgorithms(algorithms);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Keychain discard() {
+        return indexedKeychain.discard();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Key currentKey() {
+        return indexedKeychain.currentKey();
+    }
+
+    /**
+     * Returns a view which falls back to the repository key cache for the indexed {@link KeyId}.
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Key> toMap(KeyId keyId) {
+        if (keyId == null || keyId == indexedKeychain.getKeyId()) {
+            return keyMap;
+        }
+        return indexedKeychain.toMap(keyId);
+    }
+
+    /**
+     * Always false, since keys may be loaded from the repository on demand.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Key> iterator() {
+        return indexedKeychain.iterator();
+    }
+
+    private final class KeyMap extends AbstractMap<String, Key> {
+        @Override
+        public Key get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            Key indexed = indexedKeychain.getKeyById((String) key);
+            return indexed != null ? indexed : keyProvider.getKey((String) key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, Key>> entrySet() {
+            return indexedKeychain.toMap(indexedKeychain.getKeyId()).entrySet();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.oak.httpsig.ReplayStore;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ReplayStore} backed by a {@link ConcurrentMap} of keys to expiration times. Several configurations given
+ * the same map behave like cluster nodes sharing a replay store, which makes this a local stand-in for a shared
+ * backend in tests and load tests. Expired keys are purged on every {@code purgeInterval}th call.
+ */
+public final class SharedMapReplayStore implements ReplayStore {
+
+    private static final int DEFAULT_PURGE_INTERVAL = 1024;
+
+    private final ConcurrentMap<String, Long> seen;
+    private final int purgeInterval;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public SharedMapReplayStore() {
+        this(new ConcurrentHashMap<String, Long>());
+    }
+
+    public SharedMapReplayStore(ConcurrentMap<String, Long> seen) {
+        this(seen, DEFAULT_PURGE_INTERVAL);
+    }
+
+    public SharedMapReplayStore(ConcurrentMap<String, Long> seen, int purgeInterval) {
+        this.seen = seen;
+        this.purgeInterval = Math.max(1, purgeInterval);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSeen(String key, long expiresAt) {
+        long now = System.currentTimeMillis();
+        if (calls.incrementAndGet() % purgeInterval == 0) {
+            purge(now);
+        }
+        Long previous = seen.putIfAbsent(key, expiresAt);
+        if (previous == null) {
+            return true;
+        }
+        // an expired entry which has not been purged yet
+        return previous < now && seen.replace(key, previous, expiresAt);
+    }
+
+    /**
+     * @return the shared map of keys to expiration times
+     */
+    public ConcurrentMap<String, Long> getSeen() {
+        return seen;
+    }
+
+    private void purge(long now) {
+        Iterator<Map.Entry<String, Long>> entries = seen.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().getValue() < now) {
+                entries.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.List;
+
+/**
+ * Feeds the signing string of a {@link RequestContent} directly into a {@link Signature}, encoding the request line
+ * and header names and values through a small per-thread buffer instead of building the signing string and its
+ * byte array first. The bytes fed are the same as those of
+ * {@link RequestContent#getContent(List, java.nio.charset.Charset)} with {@link Constants#CHARSET}: one
+ * "name: value" line per header value, or the request line for {@link Constants#HEADER_REQUEST_LINE}, joined by
+ * newlines and trimmed. The same bytes can also be fed into a {@link MessageDigest}.
+ */
+final class SigningString {
+
+    private static final int BUFFER_SIZE = 512;
+
+    private static final ThreadLocal<SigningString> INSTANCE = new ThreadLocal<SigningString>() {
+        @Override
+        protected SigningString initialValue() {
+            return new SigningString();
+        }
+    };
+
+    private final CharsetEncoder encoder = Constants.CHARSET.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(2);
+    private final StringBuilder whitespace = new StringBuilder();
+    private Signature signature;
+    private MessageDigest digest;
+    private boolean started;
+
+    private SigningString() {
+    }
+
+    /**
+     * Updates the signature with the signing string of the request content for the signed headers.
+     * @param signature a signature initialized for verification
+     * @param content the request content
+     * @param headers the signed header names
+     * @throws SignatureException if the signature is not initialized
+     */
+    static void update(Signature signature, RequestContent content, List<String> headers)
+            throws SignatureException {
+        SigningString signingString = INSTANCE.get();
+        signingString.signature = signature;
+        try {
+            signingString.write(content, headers);
+        } finally {
+            signingString.reset();
+        }
+    }
+
+    /**
+     * Updates the digest with the signing string of the request content for the signed headers.
+     * @param digest a message digest
+     * @param content the request content
+     * @param headers the signed header names
+     */
+    static void update(MessageDigest digest, RequestContent content, List<String> headers) {
+        SigningString signingString = INSTANCE.get();
+        signingString.digest = digest;
+        try {
+            signingString.write(content, headers);
+        } catch (SignatureException e) {
+            // only thrown by an uninitialized signature
+            throw new IllegalStateException(e);
+        } finally {
+            signingString.reset();
+        }
+    }
+
+    private void write(RequestContent content, List<String> headers) throws SignatureException {
+        if (headers != null) {
+            for (String header : headers) {
+                if (Constants.HEADER_REQUEST_LINE.equalsIgnoreCase(header)) {
+                    String requestLine = content.getRequestLine();
+                    if (requestLine != null) {
+                        append(requestLine, false);
+                        append("\n", false);
+                    }
+                } else {
+                    List<String> values = content.getHeaderValues(header);
+                    if (values != null) {
+                        for (String value : values) {
+                            append(header, true);
+                            append(": ", false);
+                            append(value, false);
+                            append("\n", false);
+                        }
+                    }
+                }
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Appends the characters of a segment, deferring whitespace so that leading and trailing whitespace of the
+     * whole signing string is dropped like {@link String#trim()} would.
+     */
+    private void append(CharSequence segment, boolean lowerCase) throws SignatureException {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c <= ' ') {
+                if (started) {
+                    whitespace.append(c);
+                }
+                continue;
+            }
+
+            started = true;
+            if (whitespace.length() > 0) {
+                for (int j = 0; j < whitespace.length(); j++) {
+                    put((byte) whitespace.charAt(j));
+                }
+                whitespace.setLength(0);
+            }
+
+            if (c < 0x80) {
+                put((byte) (lowerCase && c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c));
+            } else {
+                chars.clear();
+                chars.put(lowerCase ? Character.toLowerCase(c) : c);
+                if (Character.isHighSurrogate(c) && i + 1 < segment.length()
+                        && Character.isLowSurrogate(segment.charAt(i + 1))) {
+                    chars.put(segment.charAt(++i));
+                }
+                chars.flip();
+                encode();
+            }
+        }
+    }
+
+    private void encode() throws SignatureException {
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, bytes, true);
+        if (result.isOverflow()) {
+            flush();
+            encoder.encode(chars, bytes, true);
+        }
+        encoder.flush(bytes);
+    }
+
+    private void put(byte b) throws SignatureException {
+        if (!bytes.hasRemaining()) {
+            flush();
+        }
+        bytes.put(b);
+    }
+
+    private void flush() throws SignatureException {
+        bytes.flip();
+        if (bytes.hasRemaining()) {
+            if (signature != null) {
+                signature.update(bytes);
+            } else {
+                digest.update(bytes);
+            }
+        }
+        bytes.clear();
+    }
+
+    private void reset() {
+        signature = null;
+        digest = null;
+        started = false;
+        whitespace.setLength(0);
+        bytes.clear();
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Challenge;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.Key;
+import net.adamcin.httpsig.api.KeyId;
+import net.adamcin.httpsig.api.Keychain;
+import net.adamcin.httpsig.api.RequestContent;
+import net.adamcin.httpsig.api.Verifier;
+import net.adamcin.httpsig.api.VerifyResult;
+import net.adamcin.httpsig.ssh.jce.FingerprintableKey;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link Verifier} with the same checks as {@link net.adamcin.httpsig.api.DefaultVerifier}, which verifies
+ * signatures of {@link JCRKey}s with {@link JCRKey#verify(net.adamcin.httpsig.api.Algorithm, RequestContent, List,
+ * byte[])} so that the signing string is streamed into the signature instead of being built first. Other keys are
+ * verified with the signing string bytes.
+ * <p>
+ * Checks run cheapest first: date skew, conformance of the signed headers to the challenge, presence of the signed
+ * headers in the request, then key existence.
+ * With a {@link FailureRateLimiter}, keys with too many recent failed verifications are rejected with
+ * {@link VerifyResult#FAILED_KEY_VERIFY} before any crypto is attempted. With a {@link ReplayCache}, a signed date
+ * is required, and a valid signature which has already been accepted is rejected with
+ * {@link VerifyResult#FAILED_KEY_VERIFY}. With a {@link VerificationCache}, the outcome of the crypto is remembered
+ * for a short time, so that a retried request with the same signature is answered without repeating it.
+ */
+public final class StreamingVerifier implements Verifier {
+
+    private static final List<String> DATE_HEADER = Collections.singletonList(Constants.HEADER_DATE);
+
+    private final Keychain keychain;
+    private final KeyId keyId;
+    private final long skew;
+    private final FailureRateLimiter limiter;
+    private final ReplayCache replayCache;
+    private final VerificationCache verificationCache;
+
+    public StreamingVerifier(Keychain keychain, KeyId keyId, long skew) {
+        this(keychain, keyId, skew, null, null, null);
+    }
+
+    /**
+     * @param keychain the keychain
+     * @param keyId the keyId scheme
+     * @param skew the allowed clock skew in milliseconds
+     * @param limiter optional limiter for failed verifications
+     * @param replayCache optional cache of accepted signatures, which also requires the date header to be signed
+     * @param verificationCache optional cache of recent verification outcomes
+     */
+    public StreamingVerifier(Keychain keychain, KeyId keyId, long skew, @Nullable FailureRateLimiter limiter,
+                             @Nullable ReplayCache replayCache, @Nullable VerificationCache verificationCache) {
+        this.keychain = keychain;
+        this.keyId = keyId;
+        this.skew = skew;
+        this.limiter = limiter;
+        this.replayCache = replayCache;
+        this.verificationCache = verificationCache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSkew() {
+        return skew;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Key selectKey(Authorization authorization) {
+        if (authorization == null) {
+            return null;
+        }
+        return keychain.toMap(keyId).get(authorization.getKeyId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean verify(Challenge challenge, RequestContent requestContent, Authorization authorization) {
+        return verifyWithResult(challenge, requestContent, authorization) == VerifyResult.SUCCESS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public VerifyResult verifyWithResult(Challenge challenge, RequestContent requestContent,
+                                         Authorization authorization) {
+        if (requestContent == null || authorization == null) {
+            return VerifyResult.INCOMPLETE_REQUEST;
+        }
+
+        List<String> headers = authorization.getHeaders();
+        Date date = requestContent.getDate();
+        VerifyResult rejected = checkRequest(challenge, requestContent, authorization, date);
+        if (rejected != null) {
+            return rejected;
+        }
+
+        Key key = selectKey(authorization);
+        if (key == null) {
+            return VerifyResult.KEY_NOT_FOUND;
+        }
+        String fingerprint = key instanceof FingerprintableKey ? ((FingerprintableKey) key).getFingerprint() : null;
+        if (limiter != null && limiter.isLimited(fingerprint)) {
+            return VerifyResult.FAILED_KEY_VERIFY;
+        }
+
+        byte[] hash = null;
+        Boolean cached = null;
+        if (verificationCache != null) {
+            hash = verificationCache.hash(authorization, requestContent, headers);
+            cached = verificationCache.get(hash, key);
+        }
+
+        boolean verified;
+        if (cached != null) {
+            verified = cached;
+        } else {
+            if (key instanceof JCRKey) {
+                verified = ((JCRKey) key).verify(authorization.getAlgorithm(), requestContent, headers,
+                        authorization.getSignatureBytes());
+            } else {
+                verified = key.verify(authorization.getAlgorithm(),
+                        requestContent.getContent(headers, Constants.CHARSET), authorization.getSignatureBytes());
+            }
+            if (hash != null) {
+                verificationCache.put(hash, key, verified);
+            }
+            if (!verified && limiter != null) {
+                limiter.recordFailure(fingerprint);
+            }
+        }
+        if (verified && replayCache != null && !replayCache.markSeen(authorization, date)) {
+            return VerifyResult.FAILED_KEY_VERIFY;
+        }
+        return verified ? VerifyResult.SUCCESS : VerifyResult.FAILED_KEY_VERIFY;
+    }
+
+    /**
+     * Runs the checks which do not need the key, cheapest first: skew of a signed date, conformance of the signed
+     * headers to the challenge, and presence of the signed headers in the request. Callers can use this to reject a
+     * request before loading keys for it from elsewhere.
+     * @param challenge the challenge, if any
+     * @param requestContent the request content
+     * @param authorization the authorization
+     * @return the result to reject the request with, or null if it passes the checks
+     */
+    @CheckForNull
+    public VerifyResult checkRequest(@Nullable Challenge challenge, RequestContent requestContent,
+                                     Authorization authorization) {
+        if (requestContent == null || authorization == null) {
+            return VerifyResult.INCOMPLETE_REQUEST;
+        }
+        return checkRequest(challenge, requestContent, authorization, requestContent.getDate());
+    }
+
+    private VerifyResult checkRequest(Challenge challenge, RequestContent requestContent,
+                                      Authorization authorization, Date date) {
+        List<String> headers = authorization.getHeaders();
+        boolean dateSigned = containsAll(headers, DATE_HEADER);
+        // like DefaultVerifier, an unsigned date is not checked against the skew
+        if (dateSigned && date != null && skew >= 0L && Math.abs(System.currentTimeMillis() - date.getTime()) > skew) {
+            return VerifyResult.EXPIRED_DATE_HEADER;
+        }
+        if (date == null && (replayCache != null || dateSigned)) {
+            return VerifyResult.INCOMPLETE_REQUEST;
+        }
+        if (replayCache != null && !dateSigned) {
+            // an unsigned date could be altered to replay the same signature as a new request
+            return VerifyResult.CHALLENGE_NOT_SATISFIED;
+        }
+        if (challenge != null && !containsAll(headers, challenge.getHeaders())) {
+            return VerifyResult.CHALLENGE_NOT_SATISFIED;
+        }
+        if (!hasAll(requestContent, headers)) {
+            return VerifyResult.INCOMPLETE_REQUEST;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the request has a value for every signed header, or a request line if it is signed
+     */
+    private static boolean hasAll(RequestContent requestContent, List<String> headers) {
+        if (headers == null) {
+            return true;
+        }
+        for (String header : headers) {
+            if (Constants.HEADER_REQUEST_LINE.equalsIgnoreCase(header)) {
+                if (requestContent.getRequestLine() == null) {
+                    return false;
+                }
+            } else {
+                List<String> values = requestContent.getHeaderValues(header);
+                if (values == null || values.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares header names ignoring case, without copying either list.
+     */
+    private static boolean containsAll(List<String> headers, List<String> required) {
+        if (required == null || required.isEmpty()) {
+            return true;
+        }
+        if (headers == null) {
+            return false;
+        }
+        for (String requiredHeader : required) {
+            boolean found = false;
+            for (String header : headers) {
+                if (header.equalsIgnoreCase(requiredHeader)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.Key;
+import net.adamcin.httpsig.api.RequestContent;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Short-lived memo of signature verification outcomes, so that retried requests with byte-identical signatures do
+ * not repeat the crypto. Outcomes are keyed by a SHA-256 hash of the keyId, algorithm, signature and signing string,
+ * and both valid and invalid signatures are remembered, for a time which should stay well inside the skew.
+ * <p>
+ * Entries live in a fixed, direct-mapped array indexed by the hash, so memory is bounded and a newer outcome simply
+ * replaces whichever entry shared its slot. An entry also holds the key it was verified with, and only counts as a
+ * hit when the same key instance is selected again, so that a removed or reloaded key is never vouched for by an
+ * earlier outcome.
+ */
+public final class VerificationCache {
+
+    private static final byte SEPARATOR = 0;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final long ttl;
+    private final HttpsigStats stats;
+
+    /**
+     * @param size the number of outcomes to remember, rounded up to a power of two
+     * @param ttlMillis the time in milliseconds for which an outcome is remembered
+     * @param stats optional stats in which to record hits
+     */
+    public VerificationCache(int size, long ttlMillis, HttpsigStats stats) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.entries = new AtomicReferenceArray<Entry>(capacity);
+        this.mask = capacity - 1;
+        this.ttl = ttlMillis;
+        this.stats = stats;
+    }
+
+    /**
+     * @param authorization the authorization
+     * @param content the request content
+     * @param headers the signed header names
+     * @return the hash identifying the verification
+     */
+    public byte[] hash(Authorization authorization, RequestContent content, List<String> headers) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(authorization.getKeyId().getBytes(Constants.CHARSET));
+        digest.update(SEPARATOR);
+        digest.update(String.valueOf(authorization.getAlgorithm()).getBytes(Constants.CHARSET));
+        digest.update(SEPARATOR);
+        digest.update(authorization.getSignatureBytes());
+        digest.update(SEPARATOR);
+        SigningString.update(digest, content, headers);
+        return digest.digest();
+    }
+
+    /**
+     * @param hash the hash returned by {@link #hash(Authorization, RequestContent, List)}
+     * @param key the selected key
+     * @return the remembered outcome, or null if there is none for the key
+     */
+    public Boolean get(byte[] hash, Key key) {
+        Entry entry = entries.get(index(hash));
+        if (entry == null || entry.key != key || !Arrays.equals(entry.hash, hash)
+                || System.currentTimeMillis() >= entry.expiresAt) {
+            return null;
+        }
+        if (stats != null) {
+            stats.recordVerifyCacheHit();
+        }
+        return entry.verified;
+    }
+
+    /**
+     * @param hash the hash returned by {@link #hash(Authorization, RequestContent, List)}
+     * @param key the key which verified the signature
+     * @param verified the outcome
+     */
+    public void put(byte[] hash, Key key, boolean verified) {
+        entries.set(index(hash), new Entry(hash, key, verified, System.currentTimeMillis() + ttl));
+    }
+
+    private int index(byte[] hash) {
+        return ((hash[0] & 0xff) | (hash[1] & 0xff) << 8 | (hash[2] & 0xff) << 16 | hash[3] << 24) & mask;
+    }
+
+    private static final class Entry {
+        private final byte[] hash;
+        private final Key key;
+        private final boolean verified;
+        private final long expiresAt;
+
+        private Entry(byte[] hash, Key key, boolean verified, long expiresAt) {
+            this.hash = hash;
+            this.key = key;
+            this.verified = verified;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
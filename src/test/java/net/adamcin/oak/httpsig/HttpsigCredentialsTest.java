@@ -0,0 +1,111 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpsigCredentialsTest {
+
+    private static final byte[] BODY = "{\"hello\":\"world\"}".getBytes();
+
+    @Test
+    public void testUnsignedDigest() throws Exception {
+        HttpsigCredentials credentials = credentials("SHA-256=" + Base64.encode(sha256(BODY)),
+                Constants.HEADER_DATE);
+        assertNull(credentials.getBodyDigest());
+    }
+
+    @Test
+    public void testSignedDigest() throws Exception {
+        HttpsigCredentials credentials = credentials("SHA-256=" + Base64.encode(sha256(BODY)),
+                Constants.HEADER_DATE, BodyDigest.HEADER_DIGEST);
+        BodyDigest digest = credentials.getBodyDigest();
+        assertNotNull(digest);
+        assertTrue(digest.isSupported());
+        assertEquals("SHA-256", digest.getAlgorithm());
+        digest.update(BODY, 0, BODY.length);
+        assertTrue(digest.finish());
+    }
+
+    @Test
+    public void testSignedDigestWithUnsupportedAlgorithm() throws Exception {
+        HttpsigCredentials credentials = credentials("MD5=" + Base64.encode(MessageDigest.getInstance("MD5")
+                .digest(BODY)), Constants.HEADER_DATE, BodyDigest.HEADER_DIGEST);
+        BodyDigest digest = credentials.getBodyDigest();
+        assertNotNull(digest);
+        assertFalse(digest.isSupported());
+        assertNull(digest.getAlgorithm());
+        digest.update(BODY, 0, BODY.length);
+        assertFalse(digest.finish());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedDigestRejectsBody() throws Exception {
+        HttpsigCredentials credentials = credentials("SHA-256=not base64!", Constants.HEADER_DATE,
+                BodyDigest.HEADER_DIGEST);
+        InputStream body = credentials.getBodyDigest().wrap(new ByteArrayInputStream(BODY));
+        byte[] buffer = new byte[64];
+        while (body.read(buffer, 0, buffer.length) >= 0) {
+            // drain
+        }
+    }
+
+    private static HttpsigCredentials credentials(String digest, String... signedHeaders) {
+        RequestContent content = new RequestContent.Builder()
+                .setRequestLine("PUT /content/upload HTTP/1.1")
+                .addDateNow()
+                .addHeader(BodyDigest.HEADER_DIGEST, digest)
+                .build();
+        List<String> headers = Arrays.asList(signedHeaders);
+        Authorization authorization = new Authorization("/alice/keys/aa:bb", Base64.encode(new byte[]{1, 2, 3}),
+                headers, Algorithm.RSA_SHA256);
+        return new HttpsigCredentials(null, authorization, content);
+    }
+
+    private static byte[] sha256(byte[] bytes) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.VerifyResult;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AuditEventTest {
+
+    @Test
+    public void testQuotesValues() {
+        AuditEvent event = new AuditEvent(1000L, "/alice/keys/aa:bb", "aa:bb", null, VerifyResult.SUCCESS, 2000L);
+        assertEquals("timestamp=1000 result=SUCCESS keyId=\"/alice/keys/aa:bb\" fingerprint=\"aa:bb\" userId=null"
+                + " latencyMicros=2", event.toString());
+    }
+
+    @Test
+    public void testEscapesForgedFields() {
+        String keyId = "x\" result=SUCCESS userId=\"admin\r\ntimestamp=0 \\\u0000";
+        AuditEvent event = new AuditEvent(1000L, keyId, null, null, VerifyResult.KEY_NOT_FOUND, 0L);
+        assertEquals("timestamp=1000 result=KEY_NOT_FOUND"
+                + " keyId=\"x\\\" result=SUCCESS userId=\\\"admin\\r\\ntimestamp=0 \\\\\\u0000\""
+                + " fingerprint=null userId=null latencyMicros=0", event.toString());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.VerifyResult;
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ExecutorVerifierTest {
+
+    private TestKeys keys;
+    private HttpsigStats stats;
+    private HttpsigAuthentication authentication;
+    private ExecutorVerifier asyncVerifier;
+
+    @Before
+    public void setUp() throws Exception {
+        keys = new TestKeys("alice");
+        IndexedKeychain keychain = new IndexedKeychain(new JCRKeyId(), Collections.singletonList(keys.getKey()));
+        long skew = 5L * 60L * 1000L;
+        StreamingVerifier verifier = new StreamingVerifier(keychain, keychain.getKeyId(), skew, null,
+                new ReplayCache(new InMemoryReplayStore(2L * skew), skew, null), null);
+        stats = new HttpsigStats();
+        authentication = new HttpsigAuthentication(verifier, stats);
+        asyncVerifier = new ExecutorVerifier(authentication, verifier, "test", 1, 10);
+    }
+
+    @After
+    public void tearDown() {
+        asyncVerifier.shutdown();
+    }
+
+    @Test
+    public void testLoginTakesAsyncOutcome() throws Exception {
+        HttpsigCredentials credentials = keys.sign();
+        assertEquals(VerifyResult.SUCCESS, asyncVerifier.verifyAsync(credentials, null).get());
+        assertEquals(1L, stats.getVerifyCount());
+
+        // verifying again would be rejected as a replay, so the login must take the remembered outcome
+        HttpsigAuthentication.Verification verification = authentication.takeVerification(credentials);
+        assertNotNull(verification);
+        assertEquals(VerifyResult.SUCCESS, verification.getResult());
+        assertEquals("alice", verification.getKey().getUserId());
+        assertNull(authentication.takeVerification(credentials));
+        assertEquals(VerifyResult.FAILED_KEY_VERIFY,
+                authentication.verify(credentials, authentication.selectUserKey(credentials)));
+    }
+
+    @Test
+    public void testUnknownKeyIsNotRemembered() throws Exception {
+        HttpsigCredentials credentials = new TestKeys("bob").sign();
+        assertEquals(VerifyResult.KEY_NOT_FOUND, asyncVerifier.verifyAsync(credentials, null).get());
+        assertNull(authentication.takeVerification(credentials));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testInactiveConfigurationRejects() throws Exception {
+        HttpsigConfigurationImpl config = new HttpsigConfigurationImpl();
+        assertNotNull(config.getAsyncVerifier());
+        config.getAsyncVerifier().verifyAsync(keys.sign(), null);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FailureRateLimiterTest {
+
+    private static final String KEY_A = "aa:bb";
+    private static final String KEY_B = "cc:dd";
+    private static final String KEY_C = "ee:ff";
+
+    @Test
+    public void testLimitsKeyAfterBurst() {
+        HttpsigStats stats = new HttpsigStats();
+        FailureRateLimiter limiter = new FailureRateLimiter(16, 3, 60000L, stats);
+        for (int i = 0; i < 3; i++) {
+            assertFalse("attempt " + i, limiter.isLimited(KEY_A));
+            limiter.recordFailure(KEY_A);
+        }
+        assertTrue(limiter.isLimited(KEY_A));
+        assertEquals(1L, stats.getRateLimitedCount());
+    }
+
+    @Test
+    public void testKeysHaveSeparateBudgets() {
+        FailureRateLimiter limiter = new FailureRateLimiter(16, 1, 60000L, null);
+        limiter.recordFailure(KEY_A);
+        assertTrue(limiter.isLimited(KEY_A));
+        assertFalse(limiter.isLimited(KEY_B));
+        assertFalse(limiter.isLimited(null));
+    }
+
+    @Test
+    public void testEvictsBucketClosestToRestoreBeyondCapacity() {
+        FailureRateLimiter limiter = new FailureRateLimiter(1, 1, 60000L, null);
+        limiter.recordFailure(KEY_A);
+        limiter.recordFailure(KEY_B);
+        assertFalse(limiter.isLimited(KEY_A));
+        assertTrue(limiter.isLimited(KEY_B));
+    }
+
+    @Test
+    public void testSweepKeepsLimitedKeysBeyondCapacity() {
+        FailureRateLimiter limiter = new FailureRateLimiter(2, 2, 60000L, null);
+        limiter.recordFailure(KEY_A);
+        limiter.recordFailure(KEY_A);
+        limiter.recordFailure(KEY_B);
+        limiter.recordFailure(KEY_C);
+        assertTrue(limiter.isLimited(KEY_A));
+        limiter.recordFailure(KEY_C);
+        assertTrue(limiter.isLimited(KEY_C));
+        // with both remaining keys limited, A is evicted to make room, and the first failure of B stays forgiven
+        limiter.recordFailure(KEY_B);
+        assertFalse(limiter.isLimited(KEY_B));
+        assertFalse(limiter.isLimited(KEY_A));
+        assertTrue(limiter.isLimited(KEY_C));
+    }
+
+    @Test
+    public void testCountsConcurrentFailures() throws InterruptedException {
+        final FailureRateLimiter limiter = new FailureRateLimiter(16, 100, 60000L, null);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 33; j++) {
+                        limiter.recordFailure(KEY_A);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(limiter.isLimited(KEY_A));
+        limiter.recordFailure(KEY_A);
+        assertTrue(limiter.isLimited(KEY_A));
+    }
+
+    @Test
+    public void testRestoresBudgetAfterInterval() throws InterruptedException {
+        FailureRateLimiter limiter = new FailureRateLimiter(16, 1, 20L, null);
+        limiter.recordFailure(KEY_A);
+        assertTrue(limiter.isLimited(KEY_A));
+        Thread.sleep(50L);
+        assertFalse(limiter.isLimited(KEY_A));
+    }
+}
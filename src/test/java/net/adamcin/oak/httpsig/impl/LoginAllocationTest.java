@@ -0,0 +1,157 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Challenge;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+import net.adamcin.httpsig.api.VerifyResult;
+import net.adamcin.oak.httpsig.Base64;
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards the allocation budget of a successful signature login on the hot path: key selection, the request checks,
+ * the failure rate limiter, streaming verification and stats. The bytes allocated per login are measured with the
+ * per-thread allocation counter of the JVM, less the bytes allocated by the unavoidable work of the same login done
+ * directly: parsing the date header, decoding the signature and running the JCA verification.
+ */
+public class LoginAllocationTest {
+
+    /**
+     * Bytes per login which the pipeline may allocate beyond the baseline.
+     */
+    private static final long BUDGET = 128L;
+
+    private static final int WARMUP = 5000;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 2000;
+
+    private com.sun.management.ThreadMXBean threads;
+    private OpenSSHKey sshKey;
+    private HttpsigAuthentication authentication;
+    private HttpsigCredentials credentials;
+    private byte[] contentBytes;
+    private Signature signature;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        sshKey = OpenSSHKey.decode(TestKeys.toBlob((RSAPublicKey) keyPair.getPublic()), null);
+        JCRKey key = new JCRKey("alice", sshKey);
+
+        HttpsigStats stats = new HttpsigStats();
+        IndexedKeychain keychain = new IndexedKeychain(new JCRKeyId(), Collections.singletonList(key));
+        StreamingVerifier verifier = new StreamingVerifier(keychain, keychain.getKeyId(), 5L * 60L * 1000L,
+                new FailureRateLimiter(1024, 10, 1000L, stats), null, null);
+        authentication = new HttpsigAuthentication(verifier, stats);
+
+        List<String> headers = Arrays.asList(Constants.HEADER_REQUEST_LINE, Constants.HEADER_DATE, "host");
+        RequestContent content = new RequestContent.Builder()
+                .setRequestLine("GET /content/dam.json HTTP/1.1")
+                .addDateNow()
+                .addHeader("host", "localhost:4502")
+                .build();
+        contentBytes = content.getContent(headers, Constants.CHARSET);
+
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(contentBytes);
+        Authorization authorization = new Authorization(JCRKeyId.getId("alice", key.getFingerprint()),
+                Base64.encode(signer.sign()), headers, Algorithm.RSA_SHA256);
+        credentials = new HttpsigCredentials(new Challenge("test", headers, key.getAlgorithms()),
+                authorization, content);
+        signature = sshKey.newVerifySignature(Algorithm.RSA_SHA256);
+    }
+
+    @Test
+    public void testLoginAllocations() throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            assertTrue(baseline());
+            assertEquals(VerifyResult.SUCCESS, login());
+        }
+
+        // JIT compilation can still allocate in the first rounds, so the smallest difference is checked
+        long perLogin = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long baselineBytes = allocatedBytes();
+            for (int i = 0; i < ITERATIONS; i++) {
+                baseline();
+            }
+            baselineBytes = allocatedBytes() - baselineBytes;
+
+            long loginBytes = allocatedBytes();
+            for (int i = 0; i < ITERATIONS; i++) {
+                login();
+            }
+            loginBytes = allocatedBytes() - loginBytes;
+            perLogin = Math.min(perLogin, (loginBytes - baselineBytes) / ITERATIONS);
+        }
+        assertTrue("allocated " + perLogin + " bytes per login beyond the baseline, budget is " + BUDGET,
+                perLogin <= BUDGET);
+    }
+
+    private VerifyResult login() {
+        return authentication.verify(credentials, authentication.selectUserKey(credentials));
+    }
+
+    private boolean baseline() throws Exception {
+        credentials.getRequestContent().getDate();
+        byte[] signatureBytes = credentials.getAuthorization().getSignatureBytes();
+        signature.update(contentBytes);
+        return signature.verify(sshKey.toJcaSignature(signatureBytes));
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
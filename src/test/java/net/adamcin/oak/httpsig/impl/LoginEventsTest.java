@@ -0,0 +1,90 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoginEventsTest {
+
+    /**
+     * Stands in for {@code jdk.jfr.FlightRecorderListener}.
+     */
+    public interface Listener {
+        void recordingStateChanged(Object recording);
+    }
+
+    @Test
+    public void testListenerFromLoaderWhichCannotSeeBundle() throws Exception {
+        // like the JDK loader of jdk.jfr under OSGi: it defines the listener interface, but can't see this bundle
+        IsolatedClassLoader loader = new IsolatedClassLoader();
+        Class<?> listenerClass = loader.define(Listener.class);
+        boolean bundleVisible = true;
+        try {
+            loader.loadClass(LoginEvents.class.getName());
+        } catch (ClassNotFoundException e) {
+            bundleVisible = false;
+        }
+        assertFalse(bundleVisible);
+        assertFalse(listenerClass == Listener.class);
+
+        Object listener = LoginEvents.newListener(listenerClass);
+        assertTrue(listenerClass.isInstance(listener));
+        assertTrue(listener.getClass().getClassLoader() == loader);
+        listenerClass.getMethod("recordingStateChanged", Object.class).invoke(listener, new Object[]{null});
+    }
+
+    private static final class IsolatedClassLoader extends ClassLoader {
+
+        IsolatedClassLoader() {
+            super(null);
+        }
+
+        Class<?> define(Class<?> type) throws IOException {
+            String resource = type.getName().replace('.', '/') + ".class";
+            InputStream in = type.getClassLoader().getResourceAsStream(resource);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+                byte[] bytes = out.toByteArray();
+                return defineClass(type.getName(), bytes, 0, bytes.length);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
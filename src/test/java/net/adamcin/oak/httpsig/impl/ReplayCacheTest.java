@@ -0,0 +1,111 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.oak.httpsig.Base64;
+import net.adamcin.oak.httpsig.ReplayStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayCacheTest {
+
+    private static final String KEY_ID = JCRKeyId.getId("alice", "00:11:22:33:44:55:66:77:88:99:aa:bb:cc:dd:ee:ff");
+
+    @Test
+    public void testRejectsReplay() {
+        ReplayCache cache = new ReplayCache(new InMemoryReplayStore(60000L), 30000L, null);
+        Date date = new Date();
+        assertTrue(cache.markSeen(authorization(KEY_ID, new byte[256]), date));
+        assertFalse(cache.markSeen(authorization(KEY_ID, new byte[256]), date));
+        assertTrue(cache.markSeen(authorization(KEY_ID, new byte[256]), new Date(date.getTime() + 1000L)));
+    }
+
+    @Test
+    public void testRejectsReplayAfterSkewChange() {
+        ReplayCache cache = new ReplayCache(new InMemoryReplayStore(60000L), 30000L, null);
+        Date date = new Date();
+        assertTrue(cache.markSeen(authorization(KEY_ID, new byte[256]), date));
+
+        ReplayCache grown = cache.withSkew(120000L);
+        assertFalse(grown.markSeen(authorization(KEY_ID, new byte[256]), date));
+        assertTrue(grown.markSeen(authorization(KEY_ID, new byte[128]), date));
+
+        ReplayCache shrunk = grown.withSkew(10000L);
+        assertFalse(shrunk.markSeen(authorization(KEY_ID, new byte[256]), date));
+        assertFalse(shrunk.markSeen(authorization(KEY_ID, new byte[128]), date));
+        assertTrue(shrunk.markSeen(authorization(KEY_ID, new byte[64]), date));
+    }
+
+    @Test
+    public void testOldStoreSeesKeysOfResizedStore() {
+        InMemoryReplayStore store = new InMemoryReplayStore(60000L);
+        InMemoryReplayStore resized = store.resize(120000L, 30000L);
+        long expiresAt = System.currentTimeMillis() + 30000L;
+        assertTrue(resized.markSeen("a", expiresAt));
+        // a verifier still holding the old store must not accept the same key
+        assertFalse(store.markSeen("a", expiresAt));
+        assertTrue(store.markSeen("b", expiresAt));
+        assertFalse(resized.markSeen("b", expiresAt));
+    }
+
+    @Test
+    public void testStoresFixedSizeKeys() {
+        final List<String> keys = new ArrayList<String>();
+        ReplayCache cache = new ReplayCache(new ReplayStore() {
+            @Override
+            public boolean markSeen(String key, long expiresAt) {
+                keys.add(key);
+                return true;
+            }
+        }, 30000L, null);
+        Date date = new Date();
+        cache.markSeen(authorization(KEY_ID, new byte[512]), date);
+        cache.markSeen(authorization("/bob/keys/" + KEY_ID, new byte[64]), date);
+        assertEquals(2, keys.size());
+        assertEquals(44, keys.get(0).length());
+        assertEquals(44, keys.get(1).length());
+        assertFalse(keys.get(0).equals(keys.get(1)));
+    }
+
+    private static Authorization authorization(String keyId, byte[] signature) {
+        return new Authorization(keyId, Base64.encode(signature), Collections.singletonList(Constants.HEADER_DATE),
+                Algorithm.RSA_SHA256);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks that {@link SigningString} feeds exactly the bytes of {@link RequestContent#getContent(List,
+ * java.nio.charset.Charset)}.
+ */
+public class SigningStringTest {
+
+    @Test
+    public void testDefaultHeaders() {
+        RequestContent content = new RequestContent.Builder()
+                .setRequestLine("GET /content/dam.json HTTP/1.1")
+                .addDateNow()
+                .addHeader("host", "localhost:4502")
+                .build();
+        assertSameBytes(content, Arrays.asList(Constants.HEADER_REQUEST_LINE, Constants.HEADER_DATE, "host"));
+        assertSameBytes(content, Arrays.asList("host", Constants.HEADER_DATE));
+    }
+
+    @Test
+    public void testMultipleValuesAndCase() {
+        RequestContent content = new RequestContent.Builder()
+                .addDateNow()
+                .addHeader("accept", "text/html")
+                .addHeader("accept", "application/json")
+                .build();
+        assertSameBytes(content, Arrays.asList("Accept", Constants.HEADER_DATE));
+    }
+
+    @Test
+    public void testWhitespaceAndNonAscii() {
+        RequestContent content = new RequestContent.Builder()
+                .addHeader("x-first", "  leading")
+                .addHeader("x-name", "J\u00fcrgen \u65e5\u672c \ud83d\udd11")
+                .addHeader("x-last", "trailing \t ")
+                .build();
+        assertSameBytes(content, Arrays.asList("x-first", "x-name", "x-last"));
+    }
+
+    @Test
+    public void testValueLongerThanBuffer() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            value.append(i % 7 == 0 ? "\u00e9" : "ab");
+        }
+        RequestContent content = new RequestContent.Builder()
+                .setRequestLine("POST /bin/receive HTTP/1.1")
+                .addHeader("x-long", value.toString())
+                .build();
+        assertSameBytes(content, Arrays.asList(Constants.HEADER_REQUEST_LINE, "x-long"));
+    }
+
+    private static void assertSameBytes(RequestContent content, List<String> headers) {
+        CapturingDigest digest = new CapturingDigest();
+        SigningString.update(digest, content, headers);
+        assertArrayEquals(content.getContent(headers, Constants.CHARSET), digest.bytes.toByteArray());
+    }
+
+    /**
+     * Records the bytes it is updated with.
+     */
+    private static final class CapturingDigest extends MessageDigest {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private CapturingDigest() {
+            super("capture");
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            bytes.write(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            bytes.write(input, offset, len);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            return bytes.toByteArray();
+        }
+
+        @Override
+        protected void engineReset() {
+            bytes.reset();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+import net.adamcin.httpsig.api.VerifyResult;
+import net.adamcin.oak.httpsig.Base64;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingVerifierTest {
+
+    private final IndexedKeychain keychain = new IndexedKeychain(new JCRKeyId(), Collections.<JCRKey>emptyList());
+    private final StreamingVerifier verifier = new StreamingVerifier(keychain, keychain.getKeyId(), 60000L);
+
+    @Test
+    public void testMissingSignedHeader() {
+        RequestContent content = new RequestContent.Builder()
+                .setRequestLine("GET / HTTP/1.1")
+                .addDateNow()
+                .build();
+        assertEquals(VerifyResult.INCOMPLETE_REQUEST, verifier.verifyWithResult(null, content,
+                authorization(Constants.HEADER_REQUEST_LINE, Constants.HEADER_DATE, "host")));
+        assertEquals(VerifyResult.KEY_NOT_FOUND, verifier.verifyWithResult(null, content,
+                authorization(Constants.HEADER_REQUEST_LINE, Constants.HEADER_DATE)));
+    }
+
+    @Test
+    public void testMissingSignedRequestLine() {
+        RequestContent content = new RequestContent.Builder()
+                .addDateNow()
+                .build();
+        assertEquals(VerifyResult.INCOMPLETE_REQUEST, verifier.verifyWithResult(null, content,
+                authorization(Constants.HEADER_REQUEST_LINE, Constants.HEADER_DATE)));
+    }
+
+    @Test
+    public void testSkewOnlyChecksSignedDate() {
+        RequestContent content = new RequestContent.Builder()
+                .setRequestLine("GET / HTTP/1.1")
+                .addHeader(Constants.HEADER_DATE, "Sun, 06 Nov 1994 08:49:37 GMT")
+                .build();
+        assertEquals(VerifyResult.EXPIRED_DATE_HEADER, verifier.verifyWithResult(null, content,
+                authorization(Constants.HEADER_REQUEST_LINE, Constants.HEADER_DATE)));
+        assertEquals(VerifyResult.KEY_NOT_FOUND, verifier.verifyWithResult(null, content,
+                authorization(Constants.HEADER_REQUEST_LINE)));
+    }
+
+    private static Authorization authorization(String... headers) {
+        return new Authorization(JCRKeyId.getId("alice", "00:11:22:33:44:55:66:77:88:99:aa:bb:cc:dd:ee:ff"),
+                Base64.encode(new byte[]{1, 2, 3}), Arrays.asList(headers), Algorithm.RSA_SHA256);
+    }
+}
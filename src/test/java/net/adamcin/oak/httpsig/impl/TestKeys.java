@@ -0,0 +1,105 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.oak.httpsig.impl;
+
+import net.adamcin.httpsig.api.Algorithm;
+import net.adamcin.httpsig.api.Authorization;
+import net.adamcin.httpsig.api.Challenge;
+import net.adamcin.httpsig.api.Constants;
+import net.adamcin.httpsig.api.RequestContent;
+import net.adamcin.oak.httpsig.Base64;
+import net.adamcin.oak.httpsig.HttpsigCredentials;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates RSA keys and signed requests for tests.
+ */
+final class TestKeys {
+
+    static final List<String> HEADERS = Arrays.asList(Constants.HEADER_REQUEST_LINE, Constants.HEADER_DATE, "host");
+
+    private final KeyPair keyPair;
+    private final JCRKey key;
+
+    TestKeys(String userId) throws IOException, GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        this.keyPair = generator.generateKeyPair();
+        this.key = new JCRKey(userId, OpenSSHKey.decode(toBlob((RSAPublicKey) keyPair.getPublic()), null));
+    }
+
+    JCRKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return credentials for a request dated now, signed with the key
+     */
+    HttpsigCredentials sign() throws GeneralSecurityException {
+        return sign(new RequestContent.Builder()
+                .setRequestLine("GET /content/dam.json HTTP/1.1")
+                .addDateNow()
+                .addHeader("host", "localhost:4502")
+                .build());
+    }
+
+    HttpsigCredentials sign(RequestContent content) throws GeneralSecurityException {
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(content.getContent(HEADERS, Constants.CHARSET));
+        Authorization authorization = new Authorization(JCRKeyId.getId(key.getUserId(), key.getFingerprint()),
+                Base64.encode(signer.sign()), HEADERS, Algorithm.RSA_SHA256);
+        return new HttpsigCredentials(new Challenge("test", HEADERS, key.getAlgorithms()), authorization, content);
+    }
+
+    static byte[] toBlob(RSAPublicKey publicKey) throws IOException {
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(blob);
+        writeString(out, OpenSSHKey.TYPE_RSA.getBytes("US-ASCII"));
+        writeString(out, publicKey.getPublicExponent().toByteArray());
+        writeString(out, publicKey.getModulus().toByteArray());
+        out.flush();
+        return blob.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}